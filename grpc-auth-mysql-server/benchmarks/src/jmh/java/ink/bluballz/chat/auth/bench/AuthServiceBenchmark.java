@@ -0,0 +1,96 @@
+package ink.bluballz.chat.auth.bench;
+
+import ink.bluballz.chat.auth.server.*;
+import ink.bluballz.chat.auth.v1.*;
+import io.grpc.stub.StreamObserver;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+// Whole AuthServiceImpl calls against InMemoryUserStore, invoked directly without a transport.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AuthServiceBenchmark {
+  static final String PASSWORD = "Secret123!";
+
+  AuthServiceImpl svc;
+  HashEngine hasher;
+  SessionWriteBatcher sessions;
+  ExecutorService validateExecutor;
+  String accessToken;
+  String loginRefresh;
+  final AtomicLong emails = new AtomicLong();
+
+  @Setup
+  public void setup() {
+    var dao = new InMemoryUserStore();
+    var jwt = new JwtUtil(JwtBenchmark.SECRET, 15, 7, 10_000);
+    hasher = new HashEngine(Runtime.getRuntime().availableProcessors(), 1024);
+    sessions = new SessionWriteBatcher(dao, 0, 128);
+    validateExecutor = Executors.newFixedThreadPool(2);
+    svc = new AuthServiceImpl(dao, jwt, hasher, sessions, validateExecutor);
+    var registered = call((StreamObserver<AuthResponse> r) -> svc.register(RegisterRequest.newBuilder()
+        .setEmail("bench@example.com").setPassword(PASSWORD).setDisplayName("Bench").build(), r));
+    accessToken = registered.getTokens().getAccessToken();
+    loginRefresh = registered.getTokens().getRefreshToken();
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    sessions.close();
+    hasher.close();
+    validateExecutor.shutdown();
+  }
+
+  @State(Scope.Thread)
+  public static class RefreshToken {
+    String current;
+
+    @Setup
+    public void setup(AuthServiceBenchmark b) {
+      current = call((StreamObserver<AuthResponse> r) -> b.svc.login(LoginRequest.newBuilder()
+          .setEmail("bench@example.com").setPassword(PASSWORD).build(), r)).getTokens().getRefreshToken();
+    }
+  }
+
+  @Benchmark
+  public ValidateTokenResponse validateToken() {
+    return call(r -> svc.validateToken(ValidateTokenRequest.newBuilder().setToken(accessToken).build(), r));
+  }
+
+  @Benchmark
+  public AuthTokens refresh(RefreshToken t) {
+    var tokens = call((StreamObserver<AuthTokens> r) -> svc.refresh(RefreshRequest.newBuilder().setRefreshToken(t.current).build(), r));
+    t.current = tokens.getRefreshToken();
+    return tokens;
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public AuthResponse login() {
+    return call(r -> svc.login(LoginRequest.newBuilder().setEmail("bench@example.com").setPassword(PASSWORD).build(), r));
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public AuthResponse register() {
+    var email = "user" + emails.incrementAndGet() + "@example.com";
+    return call(r -> svc.register(RegisterRequest.newBuilder().setEmail(email).setPassword(PASSWORD).build(), r));
+  }
+
+  static <T> T call(Consumer<StreamObserver<T>> rpc) {
+    var f = new CompletableFuture<T>();
+    rpc.accept(new StreamObserver<>() {
+      @Override public void onNext(T value) { f.complete(value); }
+      @Override public void onError(Throwable t) { f.completeExceptionally(t); }
+      @Override public void onCompleted() { }
+    });
+    return f.join();
+  }
+}
@@ -0,0 +1,37 @@
+package ink.bluballz.chat.auth.bench;
+
+import ink.bluballz.chat.auth.server.JwtUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class JwtBenchmark {
+  static final String SECRET = "bench_bench_bench_bench_bench_bench_32+";
+
+  JwtUtil uncached;
+  JwtUtil cached;
+  String token;
+
+  @Setup
+  public void setup() {
+    uncached = new JwtUtil(SECRET, 15, 7, 0);
+    cached = new JwtUtil(SECRET, 15, 7, 1000);
+    token = uncached.issueAccess("12345", "bench@example.com", "Bench User", 67890).token();
+    cached.parseAccess(token);
+  }
+
+  @Benchmark
+  public JwtUtil.Access issueAccess() { return uncached.issueAccess("12345", "bench@example.com", "Bench User", 67890); }
+
+  @Benchmark
+  public Object parseAccess() { return uncached.parseAccess(token); }
+
+  @Benchmark
+  public Object parseAccessCached() { return cached.parseAccess(token); }
+
+  @Benchmark
+  public String sha256() { return JwtUtil.sha256(token); }
+}
@@ -0,0 +1,22 @@
+package ink.bluballz.chat.auth.bench;
+
+import ink.bluballz.chat.auth.server.PasswordUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// bcrypt is deliberately slow (~hundreds of ms), so fewer and shorter iterations.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1, time = 2)
+@Measurement(iterations = 3, time = 3)
+public class PasswordBenchmark {
+  String hash;
+
+  @Setup
+  public void setup() { hash = PasswordUtil.hash("Secret123!"); }
+
+  @Benchmark
+  public boolean verify() { return PasswordUtil.verify("Secret123!", hash); }
+}
@@ -0,0 +1,32 @@
+-- One row per signed-in device. Refresh lookups hit the unique index on refresh_hash;
+-- expired rows are purged in batches by the server (SessionPurger).
+CREATE TABLE IF NOT EXISTS sessions (
+  id            BIGINT PRIMARY KEY AUTO_INCREMENT,
+  user_id       BIGINT NOT NULL,
+  refresh_hash  CHAR(64) NOT NULL,
+  expires_at    DATETIME NOT NULL,
+  created_at    TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  UNIQUE KEY uq_sessions_refresh (refresh_hash),
+  KEY ix_sessions_user (user_id),
+  KEY ix_sessions_expires (expires_at),
+  CONSTRAINT fk_sessions_user FOREIGN KEY (user_id) REFERENCES users(id) ON DELETE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
+-- Carry over the single refresh slot of existing users, then drop it. Both steps only run while the
+-- old column is there, and the copy skips rows already carried over, so the script can be re-run.
+SET @has_refresh := (SELECT COUNT(*) FROM information_schema.columns
+  WHERE table_schema = DATABASE() AND table_name = 'users' AND column_name = 'refresh_hash');
+
+SET @copy := IF(@has_refresh > 0,
+  'INSERT IGNORE INTO sessions(user_id, refresh_hash, expires_at)
+     SELECT id, refresh_hash, refresh_expires FROM users
+     WHERE refresh_hash IS NOT NULL AND refresh_expires IS NOT NULL',
+  'DO 0');
+PREPARE copy_refresh FROM @copy;
+EXECUTE copy_refresh;
+DEALLOCATE PREPARE copy_refresh;
+
+SET @drop := IF(@has_refresh > 0, 'ALTER TABLE users DROP COLUMN refresh_hash, DROP COLUMN refresh_expires', 'DO 0');
+PREPARE drop_refresh FROM @drop;
+EXECUTE drop_refresh;
+DEALLOCATE PREPARE drop_refresh;
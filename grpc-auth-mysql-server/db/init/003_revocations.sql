@@ -0,0 +1,10 @@
+-- Access tokens (jti) and sessions (session_id) revoked by Logout/RevokeSession, shared by every
+-- instance: each one loads the live rows at startup and folds in new ones periodically (RevocationList).
+-- expires_at is when the last token a row covers expires; later rows are purged by SessionPurger.
+CREATE TABLE IF NOT EXISTS revocations (
+  id          BIGINT PRIMARY KEY AUTO_INCREMENT,
+  jti         VARCHAR(64) NULL,
+  session_id  BIGINT NULL,
+  expires_at  DATETIME NOT NULL,
+  KEY ix_revocations_expires (expires_at)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
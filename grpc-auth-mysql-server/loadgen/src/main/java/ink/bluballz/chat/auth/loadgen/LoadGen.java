@@ -0,0 +1,285 @@
+package ink.bluballz.chat.auth.loadgen;
+
+import ink.bluballz.chat.auth.server.*;
+import ink.bluballz.chat.auth.v1.*;
+import io.grpc.*;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.netty.shaded.io.grpc.netty.NettyChannelBuilder;
+import io.grpc.netty.shaded.io.grpc.netty.NettyServerBuilder;
+import io.grpc.stub.StreamObserver;
+import org.HdrHistogram.ConcurrentHistogram;
+
+import java.net.InetSocketAddress;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Drives a Register/Login/Refresh/ValidateToken mix against the service and reports latency percentiles.
+public class LoadGen {
+  enum Op { VALIDATE, REFRESH, LOGIN, REGISTER }
+
+  static final String PASSWORD = "Secret123!";
+
+  final Map<String, String> opts;
+  final Op[] schedule;
+  final EnumMap<Op, ConcurrentHistogram> latency = new EnumMap<>(Op.class);
+  final EnumMap<Op, ConcurrentHashMap<Status.Code, LongAdder>> errors = new EnumMap<>(Op.class);
+  final ConcurrentLinkedQueue<String> refreshTokens = new ConcurrentLinkedQueue<>();
+  final AtomicInteger refreshPoolSize = new AtomicInteger();
+  final AtomicLong registered = new AtomicLong();
+  final LongAdder dropped = new LongAdder();
+  final AtomicInteger outstanding = new AtomicInteger();
+  AtomicReferenceArray<String> accessTokens;
+  AuthServiceGrpc.AuthServiceStub stub;
+  int users;
+  volatile boolean recording;
+  volatile boolean running = true;
+
+  LoadGen(Map<String, String> opts) {
+    this.opts = opts;
+    this.schedule = parseMix(opt("mix", "validate=70,refresh=20,login=9,register=1"));
+    for (var op : Op.values()) {
+      latency.put(op, new ConcurrentHistogram(3));
+      errors.put(op, new ConcurrentHashMap<>());
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    var opts = new HashMap<String, String>();
+    for (var a : args) {
+      if (!a.startsWith("--")) throw new IllegalArgumentException("Unexpected argument " + a);
+      var kv = a.substring(2).split("=", 2);
+      opts.put(kv[0], kv.length > 1 ? kv[1] : "true");
+    }
+    new LoadGen(opts).run();
+  }
+
+  String opt(String k, String def) { return opts.getOrDefault(k, def); }
+  int intOpt(String k, int def) { return Integer.parseInt(opt(k, Integer.toString(def))); }
+
+  void run() throws Exception {
+    var server = opts.containsKey("target") ? null : startServer();
+    var channel = channel(server);
+    stub = AuthServiceGrpc.newStub(channel);
+    users = intOpt("users", 100);
+    accessTokens = new AtomicReferenceArray<>(users);
+
+    var started = System.nanoTime();
+    seedUsers();
+    System.out.printf("Seeded %d users in %.1fs%n", users, (System.nanoTime() - started) / 1e9);
+
+    var concurrency = intOpt("concurrency", 64);
+    var rate = intOpt("rate", 0);
+    var warmup = intOpt("warmup", 5);
+    var duration = intOpt("duration", 30);
+    System.out.printf("%s loop, %s, concurrency=%d, warmup=%ds, duration=%ds%n",
+        rate > 0 ? "Open (" + rate + " ops/s)" : "Closed", describeTarget(), concurrency, warmup, duration);
+
+    Thread driver;
+    if (rate > 0) {
+      driver = new Thread(() -> openLoop(rate, concurrency), "loadgen-open");
+      driver.start();
+    } else {
+      driver = null;
+      for (int i = 0; i < concurrency; i++) next();
+    }
+    Thread.sleep(warmup * 1000L);
+    latency.values().forEach(ConcurrentHistogram::reset);
+    errors.values().forEach(Map::clear);
+    dropped.reset();
+    recording = true;
+    var measureStart = System.nanoTime();
+    Thread.sleep(duration * 1000L);
+    recording = false;
+    var elapsed = (System.nanoTime() - measureStart) / 1e9;
+    running = false;
+    if (driver != null) driver.join();
+
+    report(elapsed);
+    channel.shutdownNow();
+    if (server != null) server.shutdownNow();
+    System.exit(0);
+  }
+
+  Server startServer() throws Exception {
+    UserStore dao = dbLatency(intOpt("db-latency-micros", 0));
+    if (intOpt("user-cache", 0) > 0) dao = new CachingUserStore(dao, intOpt("user-cache", 0), 60);
+    var jwt = new JwtUtil("loadgen_loadgen_loadgen_loadgen_32+", 15, 7, intOpt("token-cache", 50_000));
+    var cores = Runtime.getRuntime().availableProcessors();
+    var hasher = new HashEngine(intOpt("hash-threads", cores), intOpt("hash-queue", cores * 32));
+    var sessions = new SessionWriteBatcher(dao, intOpt("session-window-micros", 2000), intOpt("session-batch", 128));
+    var svc = new AuthServiceImpl(dao, jwt, hasher, sessions, Executors.newFixedThreadPool(cores));
+
+    ServerBuilder<?> builder = "loopback".equals(opt("transport", "inprocess"))
+        ? NettyServerBuilder.forAddress(new InetSocketAddress("127.0.0.1", 0))
+        : InProcessServerBuilder.forName("loadgen");
+    if ("virtual".equals(opt("executor", "platform"))) {
+      builder.executor(Executors.newVirtualThreadPerTaskExecutor());
+      builder.intercept(new CallLimiter(intOpt("max-calls", 1024)));
+    }
+    return builder.addService(svc).build().start();
+  }
+
+  // Simulates JDBC round trips by blocking the calling thread, like a real UserDao would.
+  static InMemoryUserStore dbLatency(int micros) {
+    if (micros <= 0) return new InMemoryUserStore();
+    return new InMemoryUserStore() {
+      void pause() { LockSupport.parkNanos(micros * 1000L); }
+      @Override public Session insertUser(String e, String d, String p, String r, Instant x) throws Exception { pause(); return super.insertUser(e, d, p, r, x); }
+      @Override public User findByEmail(String email) { pause(); return super.findByEmail(email); }
+      @Override public Session findSessionByRefresh(String hash) { pause(); return super.findSessionByRefresh(hash); }
+      @Override public long[] writeSessions(List<SessionWrite> writes) { pause(); return super.writeSessions(writes); }
+    };
+  }
+
+  ManagedChannel channel(Server server) {
+    if (server == null) return NettyChannelBuilder.forTarget(opts.get("target")).usePlaintext().build();
+    if (server.getListenSockets().get(0) instanceof InetSocketAddress addr) {
+      return NettyChannelBuilder.forAddress("127.0.0.1", addr.getPort()).usePlaintext().build();
+    }
+    return InProcessChannelBuilder.forName("loadgen").build();
+  }
+
+  String describeTarget() {
+    if (opts.containsKey("target")) return "target " + opts.get("target");
+    return opt("transport", "inprocess") + "/" + opt("executor", "platform") + " executor, db latency " + intOpt("db-latency-micros", 0) + "us";
+  }
+
+  void seedUsers() throws Exception {
+    var blocking = AuthServiceGrpc.newBlockingStub(stub.getChannel());
+    var pool = Executors.newFixedThreadPool(Math.min(users, 32));
+    var futures = new ArrayList<Future<?>>();
+    for (int i = 0; i < users; i++) {
+      var idx = i;
+      futures.add(pool.submit(() -> {
+        AuthResponse r;
+        try {
+          r = blocking.register(RegisterRequest.newBuilder().setEmail(email(idx)).setPassword(PASSWORD).setDisplayName("User " + idx).build());
+        } catch (StatusRuntimeException e) {
+          if (e.getStatus().getCode() != Status.Code.ALREADY_EXISTS) throw e;
+          r = blocking.login(LoginRequest.newBuilder().setEmail(email(idx)).setPassword(PASSWORD).build());
+        }
+        keep(idx, r.getTokens());
+      }));
+    }
+    for (var f : futures) f.get();
+    pool.shutdown();
+  }
+
+  static String email(long i) { return "load" + i + "@example.com"; }
+
+  void keep(int userIdx, AuthTokens tokens) {
+    accessTokens.set(userIdx, tokens.getAccessToken());
+    if (refreshPoolSize.incrementAndGet() > users * 4) {
+      refreshPoolSize.decrementAndGet();
+      return;
+    }
+    refreshTokens.add(tokens.getRefreshToken());
+  }
+
+  Op pick() { return schedule[ThreadLocalRandom.current().nextInt(schedule.length)]; }
+
+  // Closed loop: each of the N virtual clients issues its next call when the previous one finishes.
+  void next() {
+    if (!running) return;
+    issue(pick(), System.nanoTime(), this::next);
+  }
+
+  // Open loop: calls are due at a fixed rate regardless of how fast they complete. Latency is measured
+  // from the due time, so a stalled server is not hidden by delayed sends (coordinated omission).
+  void openLoop(int rate, int maxOutstanding) {
+    var interval = 1_000_000_000L / rate;
+    var due = System.nanoTime();
+    while (running) {
+      var wait = due - System.nanoTime();
+      if (wait > 0) LockSupport.parkNanos(wait);
+      if (outstanding.get() >= maxOutstanding) {
+        if (recording) dropped.increment();
+      } else {
+        outstanding.incrementAndGet();
+        issue(pick(), due, outstanding::decrementAndGet);
+      }
+      due += interval;
+    }
+  }
+
+  void issue(Op op, long startNanos, Runnable then) {
+    var rnd = ThreadLocalRandom.current();
+    var userIdx = rnd.nextInt(users);
+    switch (op) {
+      case VALIDATE -> stub.validateToken(ValidateTokenRequest.newBuilder().setToken(accessTokens.get(userIdx)).build(),
+          observer(op, startNanos, then, r -> { }));
+      case REFRESH -> {
+        var token = refreshTokens.poll();
+        if (token == null) {
+          issue(Op.VALIDATE, startNanos, then);
+          return;
+        }
+        refreshPoolSize.decrementAndGet();
+        stub.refresh(RefreshRequest.newBuilder().setRefreshToken(token).build(),
+            observer(op, startNanos, then, r -> keep(userIdx, r)));
+      }
+      case LOGIN -> stub.login(LoginRequest.newBuilder().setEmail(email(userIdx)).setPassword(PASSWORD).build(),
+          observer(op, startNanos, then, r -> keep(userIdx, r.getTokens())));
+      case REGISTER -> {
+        var email = "reg" + registered.incrementAndGet() + "-" + System.nanoTime() + "@example.com";
+        stub.register(RegisterRequest.newBuilder().setEmail(email).setPassword(PASSWORD).build(),
+            observer(op, startNanos, then, r -> { }));
+      }
+    }
+  }
+
+  <T> StreamObserver<T> observer(Op op, long startNanos, Runnable then, java.util.function.Consumer<T> onValue) {
+    return new StreamObserver<>() {
+      @Override
+      public void onNext(T value) { onValue.accept(value); }
+
+      @Override
+      public void onError(Throwable t) {
+        if (recording) errors.get(op).computeIfAbsent(Status.fromThrowable(t).getCode(), c -> new LongAdder()).increment();
+        then.run();
+      }
+
+      @Override
+      public void onCompleted() {
+        if (recording) latency.get(op).recordValue(Math.max(1, (System.nanoTime() - startNanos) / 1000));
+        then.run();
+      }
+    };
+  }
+
+  void report(double seconds) {
+    System.out.printf("%n%-9s %9s %8s %10s %9s %9s %9s %9s %9s%n", "op", "ok", "errors", "ops/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+    long total = 0;
+    for (var op : Op.values()) {
+      var h = latency.get(op);
+      var errs = errors.get(op).values().stream().mapToLong(LongAdder::sum).sum();
+      if (h.getTotalCount() == 0 && errs == 0) continue;
+      total += h.getTotalCount();
+      System.out.printf("%-9s %9d %8d %10.1f %9.3f %9.3f %9.3f %9.3f %9.3f%n", op.name().toLowerCase(), h.getTotalCount(), errs,
+          h.getTotalCount() / seconds, ms(h, 50), ms(h, 90), ms(h, 99), ms(h, 99.9), h.getMaxValue() / 1000.0);
+      errors.get(op).forEach((code, n) -> System.out.printf("          %s x%d%n", code, n.sum()));
+    }
+    System.out.printf("total     %9d %8s %10.1f%n", total, "", total / seconds);
+    if (dropped.sum() > 0) System.out.printf("dropped (over --concurrency outstanding): %d%n", dropped.sum());
+  }
+
+  static double ms(ConcurrentHistogram h, double pct) { return h.getValueAtPercentile(pct) / 1000.0; }
+
+  static Op[] parseMix(String mix) {
+    var out = new ArrayList<Op>();
+    for (var part : mix.split(",")) {
+      var kv = part.trim().split("=");
+      var op = Op.valueOf(kv[0].trim().toUpperCase());
+      for (int i = 0, n = Integer.parseInt(kv[1].trim()); i < n; i++) out.add(op);
+    }
+    if (out.isEmpty()) throw new IllegalArgumentException("Empty --mix");
+    return out.toArray(Op[]::new);
+  }
+}
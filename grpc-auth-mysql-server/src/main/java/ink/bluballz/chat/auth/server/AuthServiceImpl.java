@@ -4,19 +4,60 @@ import ink.bluballz.chat.auth.v1.*;
 import io.grpc.Status;
 import io.grpc.stub.StreamObserver;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.security.SecureRandom;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.HashMap;
 import java.util.HexFormat;
+import java.util.LinkedHashSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 public class AuthServiceImpl extends AuthServiceGrpc.AuthServiceImplBase {
-  private final UserDao userDao;
+  private final UserStore users;
   private final JwtUtil jwt;
+  private final HashEngine hasher;
+  private final SessionWriteBatcher sessions;
+  private final Executor validateExecutor;
+  private final Executor callExecutor;
+  private final UserSearchIndex search;
+  private final UserFeed feed;
+  private final UserImporter importer;
+  private final byte[] serviceToken;
   private final SecureRandom rng = new SecureRandom();
 
-  public AuthServiceImpl(UserDao userDao, JwtUtil jwt) {
-    this.userDao = userDao;
+  static final long SIGNING_KEYS_MAX_AGE_SECONDS = 300;
+  static final int SEARCH_DEFAULT_LIMIT = 20;
+  static final int SEARCH_MAX_LIMIT = 100;
+  static final int GET_USERS_MAX_IDS = 1000;
+  static final int LIST_DEFAULT_PAGE = 500;
+  static final int LIST_MAX_PAGE = 1000;
+
+  // Without an index and feed passed in, SearchUsers only finds users registered through this service
+  // object, and ImportUsers, ListUsers and WatchUsers are disabled.
+  public AuthServiceImpl(UserStore users, JwtUtil jwt, HashEngine hasher, SessionWriteBatcher sessions, Executor validateExecutor) {
+    this(users, jwt, hasher, sessions, validateExecutor, Executors.newCachedThreadPool(Thread.ofPlatform().daemon().name("call-", 1).factory()),
+        new UserSearchIndex(users), new UserFeed(2), null, null);
+  }
+
+  // callExecutor runs what follows a bcrypt job or a session write (JDBC, signing, the reply), so
+  // the bcrypt pool and the session writer thread do nothing else. A blank serviceToken disables ListUsers and WatchUsers.
+  public AuthServiceImpl(UserStore users, JwtUtil jwt, HashEngine hasher, SessionWriteBatcher sessions, Executor validateExecutor,
+                         Executor callExecutor, UserSearchIndex search, UserFeed feed, UserImporter importer, String serviceToken) {
+    this.users = users;
     this.jwt = jwt;
+    this.hasher = hasher;
+    this.sessions = sessions;
+    this.validateExecutor = validateExecutor;
+    this.callExecutor = callExecutor;
+    this.search = search;
+    this.feed = feed;
+    this.importer = importer != null ? importer : new UserImporter(users, hasher, search, null, hasher.cost());
+    this.serviceToken = serviceToken == null || serviceToken.isBlank() ? null : serviceToken.getBytes(StandardCharsets.UTF_8);
   }
 
   @Override
@@ -32,21 +73,32 @@ public class AuthServiceImpl extends AuthServiceGrpc.AuthServiceImplBase {
         resp.onError(Status.INVALID_ARGUMENT.withDescription("Password too short").asRuntimeException());
         return;
       }
-      if (userDao.existsByEmail(email)) {
-        resp.onError(Status.ALREADY_EXISTS.withDescription("Email in use").asRuntimeException());
-        return;
-      }
-      var hash = PasswordUtil.hash(req.getPassword());
-      var userId = userDao.insertUser(email, display, hash);
-      var tokens = issueTokensFor(userId, email, display);
-      var out = AuthResponse.newBuilder()
-          .setUserId(Long.toString(userId))
-          .setEmail(email)
-          .setDisplayName(display)
-          .setTokens(tokens)
-          .build();
-      resp.onNext(out);
-      resp.onCompleted();
+      hasher.hash(req.getPassword()).thenAcceptAsync(hash -> {
+        try {
+          var refreshRaw = randomHex(32);
+          var refreshExp = Instant.now().plus(jwt.refreshDays(), ChronoUnit.DAYS);
+          UserStore.Session session;
+          try {
+            session = users.insertUser(email, display, hash, JwtUtil.sha256(refreshRaw), refreshExp);
+          } catch (UserStore.DuplicateEmailException dup) {
+            resp.onError(Status.ALREADY_EXISTS.withDescription("Email in use").asRuntimeException());
+            return;
+          }
+          search.add(session.user());
+          var userId = session.user().id();
+          var tokens = tokens(jwt.issueAccess(Long.toString(userId), email, display, session.id()), refreshRaw, refreshExp, session.id());
+          var out = AuthResponse.newBuilder()
+              .setUserId(Long.toString(userId))
+              .setEmail(email)
+              .setDisplayName(display)
+              .setTokens(tokens)
+              .build();
+          resp.onNext(out);
+          resp.onCompleted();
+        } catch (Exception e) {
+          throw new CompletionException(e);
+        }
+      }, callExecutor).exceptionally(t -> fail(resp, t));
     } catch (Exception e) {
       resp.onError(Status.INTERNAL.withDescription(e.getMessage()).asRuntimeException());
     }
@@ -56,24 +108,25 @@ public class AuthServiceImpl extends AuthServiceGrpc.AuthServiceImplBase {
   public void login(LoginRequest req, StreamObserver<AuthResponse> resp) {
     try {
       var email = req.getEmail().trim().toLowerCase();
-      var user = userDao.findByEmail(email);
+      var user = users.findByEmail(email);
       if (user == null) {
         resp.onError(Status.NOT_FOUND.withDescription("No such user").asRuntimeException());
         return;
       }
-      if (!PasswordUtil.verify(req.getPassword(), user.passwordHash())) {
-        resp.onError(Status.PERMISSION_DENIED.withDescription("Bad credentials").asRuntimeException());
-        return;
-      }
-      var tokens = issueTokensFor(user.id(), user.email(), user.displayName());
-      var out = AuthResponse.newBuilder()
-          .setUserId(Long.toString(user.id()))
-          .setEmail(user.email())
-          .setDisplayName(user.displayName())
-          .setTokens(tokens)
-          .build();
-      resp.onNext(out);
-      resp.onCompleted();
+      hasher.verify(req.getPassword(), user.passwordHash()).thenComposeAsync(ok -> {
+        if (!ok) throw Status.PERMISSION_DENIED.withDescription("Bad credentials").asRuntimeException();
+        if (hasher.needsRehash(user.passwordHash())) rehash(user, req.getPassword());
+        return issueTokensFor(user.id(), user.email(), user.displayName());
+      }, callExecutor).thenAccept(tokens -> {
+        var out = AuthResponse.newBuilder()
+            .setUserId(Long.toString(user.id()))
+            .setEmail(user.email())
+            .setDisplayName(user.displayName())
+            .setTokens(tokens)
+            .build();
+        resp.onNext(out);
+        resp.onCompleted();
+      }).exceptionally(t -> fail(resp, t));
     } catch (Exception e) {
       resp.onError(Status.INTERNAL.withDescription(e.getMessage()).asRuntimeException());
     }
@@ -88,18 +141,19 @@ public class AuthServiceImpl extends AuthServiceGrpc.AuthServiceImplBase {
         return;
       }
       var hash = JwtUtil.sha256(token);
-      var user = userDao.findByRefresh(hash);
-      if (user == null) {
+      var session = users.findSessionByRefresh(hash);
+      if (session == null) {
         resp.onError(Status.PERMISSION_DENIED.withDescription("Invalid refresh token").asRuntimeException());
         return;
       }
-      if (user.refreshExpires() != null && user.refreshExpires().isBefore(Instant.now())) {
+      if (session.expires().isBefore(Instant.now())) {
         resp.onError(Status.PERMISSION_DENIED.withDescription("Refresh expired").asRuntimeException());
         return;
       }
-      var tokens = issueTokensFor(user.id(), user.email(), user.displayName());
-      resp.onNext(tokens);
-      resp.onCompleted();
+      rotateTokensFor(session, hash).thenAccept(tokens -> {
+        resp.onNext(tokens);
+        resp.onCompleted();
+      }).exceptionally(t -> fail(resp, t));
     } catch (Exception e) {
       resp.onError(Status.INTERNAL.withDescription(e.getMessage()).asRuntimeException());
     }
@@ -111,8 +165,8 @@ public class AuthServiceImpl extends AuthServiceGrpc.AuthServiceImplBase {
       var claims = jwt.parseAccess(req.getToken());
       var out = ValidateTokenResponse.newBuilder()
           .setValid(true)
-          .setUserId(claims.getSubject())
-          .setEmail((String) claims.get("email"))
+          .setUserId(claims.userId())
+          .setEmail(claims.email())
           .build();
       resp.onNext(out);
       resp.onCompleted();
@@ -122,19 +176,218 @@ public class AuthServiceImpl extends AuthServiceGrpc.AuthServiceImplBase {
     }
   }
 
-  private AuthTokens issueTokensFor(long userId, String email, String display) throws Exception {
-    var access = jwt.issueAccess(Long.toString(userId), email, display);
+  @Override
+  public StreamObserver<ValidateTokensRequest> validateTokens(StreamObserver<ValidateTokensResponse> resp) {
+    return new ValidateTokensStream(jwt, validateExecutor, resp);
+  }
+
+  @Override
+  public void logout(LogoutRequest req, StreamObserver<LogoutResponse> resp) {
+    try {
+      var claims = authenticate(req.getAccessToken());
+      revoke(claims.jti(), 0, claims.expiresAt());
+      endSession(claims, claims.sessionId());
+      resp.onNext(LogoutResponse.getDefaultInstance());
+      resp.onCompleted();
+    } catch (Exception e) {
+      fail(resp, e);
+    }
+  }
+
+  @Override
+  public void revokeSession(RevokeSessionRequest req, StreamObserver<RevokeSessionResponse> resp) {
+    try {
+      var claims = authenticate(req.getAccessToken());
+      if (req.getSessionId() <= 0) {
+        resp.onError(Status.INVALID_ARGUMENT.withDescription("Missing session_id").asRuntimeException());
+        return;
+      }
+      resp.onNext(RevokeSessionResponse.newBuilder().setRevoked(endSession(claims, req.getSessionId())).build());
+      resp.onCompleted();
+    } catch (Exception e) {
+      fail(resp, e);
+    }
+  }
+
+  @Override
+  public void searchUsers(SearchUsersRequest req, StreamObserver<SearchUsersResponse> resp) {
+    try {
+      var claims = authenticate(req.getAccessToken());
+      var limit = req.getLimit() <= 0 ? SEARCH_DEFAULT_LIMIT : Math.min(req.getLimit(), SEARCH_MAX_LIMIT);
+      var out = SearchUsersResponse.newBuilder();
+      for (var m : search.search(req.getQuery(), limit, Long.parseLong(claims.userId()))) {
+        out.addUsers(UserSummary.newBuilder()
+            .setUserId(Long.toString(m.userId())).setEmail(m.email()).setDisplayName(m.displayName()));
+      }
+      resp.onNext(out.build());
+      resp.onCompleted();
+    } catch (Exception e) {
+      fail(resp, e);
+    }
+  }
+
+  @Override
+  public void getUsers(GetUsersRequest req, StreamObserver<GetUsersResponse> resp) {
+    try {
+      authenticate(req.getAccessToken());
+      if (req.getUserIdsCount() > GET_USERS_MAX_IDS) {
+        resp.onError(Status.INVALID_ARGUMENT.withDescription("At most " + GET_USERS_MAX_IDS + " user_ids").asRuntimeException());
+        return;
+      }
+      var ids = new LinkedHashSet<Long>();
+      for (var id : req.getUserIdsList()) {
+        try {
+          ids.add(Long.parseLong(id));
+        } catch (NumberFormatException e) {
+          resp.onError(Status.INVALID_ARGUMENT.withDescription("Bad user_id: " + id).asRuntimeException());
+          return;
+        }
+      }
+      var found = new HashMap<Long, UserStore.User>();
+      for (var u : users.findByIds(ids)) found.put(u.id(), u);
+      var out = GetUsersResponse.newBuilder();
+      for (var id : ids) {
+        var u = found.get(id);
+        if (u != null) {
+          out.addUsers(UserSummary.newBuilder().setUserId(Long.toString(u.id())).setEmail(u.email()).setDisplayName(u.displayName()));
+        }
+      }
+      resp.onNext(out.build());
+      resp.onCompleted();
+    } catch (Exception e) {
+      fail(resp, e);
+    }
+  }
+
+  @Override
+  public void listUsers(ListUsersRequest req, StreamObserver<ListUsersResponse> resp) {
+    try {
+      authorizeService(req.getServiceToken());
+      var pageSize = req.getPageSize() <= 0 ? LIST_DEFAULT_PAGE : Math.min(req.getPageSize(), LIST_MAX_PAGE);
+      new ListUsersStream(users, Math.max(0, req.getAfterUserId()), pageSize, resp).pump();
+    } catch (Exception e) {
+      fail(resp, e);
+    }
+  }
+
+  @Override
+  public void watchUsers(WatchUsersRequest req, StreamObserver<UserEvent> resp) {
+    try {
+      authorizeService(req.getServiceToken());
+      // users the initial index load finds are never sent as events, so a watcher must start after it
+      if (!search.loaded()) throw Status.UNAVAILABLE.withDescription("User index still loading").asRuntimeException();
+      feed.subscribe(req.getEpoch(), req.getAfterSeq(), resp);
+    } catch (Exception e) {
+      fail(resp, e);
+    }
+  }
+
+  @Override
+  public StreamObserver<ImportUsersRequest> importUsers(StreamObserver<ImportUsersResponse> resp) {
+    return importer.open(resp);
+  }
+
+  // For calls made by other services rather than users: the directory export and the change feed.
+  private void authorizeService(String token) {
+    if (serviceToken == null) throw Status.PERMISSION_DENIED.withDescription("Service calls disabled").asRuntimeException();
+    if (!MessageDigest.isEqual(serviceToken, token.getBytes(StandardCharsets.UTF_8))) {
+      throw Status.PERMISSION_DENIED.withDescription("Bad service token").asRuntimeException();
+    }
+  }
+
+  private JwtUtil.AccessClaims authenticate(String accessToken) {
+    try {
+      return jwt.parseAccess(accessToken);
+    } catch (Exception e) {
+      throw Status.UNAUTHENTICATED.withDescription("Invalid access token").asRuntimeException();
+    }
+  }
+
+  // Deletes the caller's session so its refresh token stops working, and revokes the access tokens
+  // it issued for as long as any of them can still be valid.
+  private boolean endSession(JwtUtil.AccessClaims claims, long sessionId) throws Exception {
+    if (sessionId == 0) return false;
+    var deleted = users.deleteSession(sessionId, Long.parseLong(claims.userId()));
+    if (deleted || sessionId == claims.sessionId()) {
+      revoke(null, sessionId, Instant.now().getEpochSecond() + jwt.accessMinutes() * 60L);
+    }
+    return deleted;
+  }
+
+  // Takes effect here at once and on other instances at their next revocation catch-up.
+  private void revoke(String jti, long sessionId, long until) throws Exception {
+    if (jti != null) jwt.revocations().revokeToken(jti, until);
+    else jwt.revocations().revokeSession(sessionId, until);
+    users.saveRevocation(jti, sessionId, until);
+  }
+
+  @Override
+  public void getSigningKeys(GetSigningKeysRequest req, StreamObserver<GetSigningKeysResponse> resp) {
+    var out = GetSigningKeysResponse.newBuilder().setMaxAgeSeconds(SIGNING_KEYS_MAX_AGE_SECONDS);
+    for (var k : jwt.keys().jwks()) {
+      out.addKeys(SigningKey.newBuilder()
+          .setKid(k.kid()).setKty(k.kty()).setAlg(k.alg()).setUse(k.use())
+          .setCrv(k.crv()).setX(k.x()).setY(k.y()));
+    }
+    resp.onNext(out.build());
+    resp.onCompleted();
+  }
+
+  // Upgrades a hash made at a lower bcrypt cost while the plaintext is at hand. Off the request path:
+  // the login does not wait for it and a failure just leaves the old hash in place.
+  private void rehash(UserStore.User user, String password) {
+    hasher.rehash(password).thenAcceptAsync(hash -> {
+      if (hash == null) return;
+      try {
+        users.updatePasswordHash(user.id(), user.passwordHash(), hash);
+      } catch (Exception e) {
+        System.err.println("Rehash of user " + user.id() + " failed: " + e.getMessage());
+      }
+    }, callExecutor);
+  }
+
+  // Starts a new device session; other sessions of the user stay valid. The access token carries the
+  // session id, so it is signed once the batched session write has committed and the id is known, on
+  // the call executor rather than the session writer thread.
+  private CompletableFuture<AuthTokens> issueTokensFor(long userId, String email, String display) {
+    var refreshRaw = randomHex(32);
+    var refreshExp = Instant.now().plus(jwt.refreshDays(), ChronoUnit.DAYS);
+    return sessions.submit(UserStore.SessionWrite.insert(userId, JwtUtil.sha256(refreshRaw), refreshExp))
+        .thenApplyAsync(sid -> tokens(jwt.issueAccess(Long.toString(userId), email, display, sid), refreshRaw, refreshExp, sid), callExecutor);
+  }
+
+  // Replaces the refresh token of an existing session in place, provided it is still `presentedHash`:
+  // of two refreshes with the same token only one gets new tokens, and none does after a logout.
+  private CompletableFuture<AuthTokens> rotateTokensFor(UserStore.Session session, String presentedHash) {
+    var user = session.user();
     var refreshRaw = randomHex(32);
     var refreshExp = Instant.now().plus(jwt.refreshDays(), ChronoUnit.DAYS);
-    userDao.updateRefresh(userId, JwtUtil.sha256(refreshRaw), refreshExp);
+    var tokens = tokens(jwt.issueAccess(Long.toString(user.id()), user.email(), user.displayName(), session.id()), refreshRaw, refreshExp, session.id());
+    return sessions.submit(UserStore.SessionWrite.rotate(session.id(), user.id(), presentedHash, JwtUtil.sha256(refreshRaw), refreshExp))
+        .thenApplyAsync(sid -> {
+          if (sid == 0) throw Status.PERMISSION_DENIED.withDescription("Invalid refresh token").asRuntimeException();
+          return tokens;
+        }, callExecutor);
+  }
+
+  private static AuthTokens tokens(JwtUtil.Access access, String refreshRaw, Instant refreshExp, long sessionId) {
     return AuthTokens.newBuilder()
         .setAccessToken(access.token())
         .setRefreshToken(refreshRaw)
         .setAccessExpiresAt(access.expiresAt())
         .setRefreshExpiresAt(refreshExp.getEpochSecond())
+        .setSessionId(sessionId)
         .build();
   }
 
+  private static Void fail(StreamObserver<?> resp, Throwable t) {
+    var cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+    var status = Status.fromThrowable(cause);
+    if (status.getCode() == Status.Code.UNKNOWN) status = Status.INTERNAL.withDescription(cause.getMessage());
+    resp.onError(status.asRuntimeException());
+    return null;
+  }
+
   private String randomHex(int bytes) {
     var arr = new byte[bytes];
     rng.nextBytes(arr);
@@ -0,0 +1,176 @@
+package ink.bluballz.chat.auth.server;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+// Read-through cache of users by id and email in front of another UserStore; sessions always pass through.
+public class CachingUserStore implements UserStore {
+  private record Entry(User user, long expiresAtMillis) {}
+
+  private final UserStore delegate;
+  private final int maxEntries;
+  private final long ttlMillis;
+  private final ConcurrentHashMap<Long, Entry> byId = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, Entry> byEmail = new ConcurrentHashMap<>();
+  private final AtomicBoolean shrinking = new AtomicBoolean();
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  public record Stats(long size, long hits, long misses, long evictions) {}
+
+  public CachingUserStore(UserStore delegate, int maxEntries, long ttlSeconds) {
+    this.delegate = delegate;
+    this.maxEntries = maxEntries;
+    this.ttlMillis = TimeUnit.SECONDS.toMillis(ttlSeconds);
+  }
+
+  @Override
+  public boolean existsByEmail(String email) throws Exception {
+    return cached(byEmail.get(email)) != null || delegate.existsByEmail(email);
+  }
+
+  @Override
+  public Session insertUser(String email, String display, String pwdHash, String refreshHash, Instant refreshExpires) throws Exception {
+    invalidate(email);
+    var session = delegate.insertUser(email, display, pwdHash, refreshHash, refreshExpires);
+    put(session.user());
+    return session;
+  }
+
+  // Imported users are not cached: a bulk load would only push out the users who are logging in.
+  @Override
+  public long[] importUsers(List<NewUser> users) throws Exception {
+    for (var u : users) invalidate(u.email());
+    return delegate.importUsers(users);
+  }
+
+  @Override
+  public User findById(long id) throws Exception {
+    var user = cached(byId.get(id));
+    if (user != null) return user;
+    user = delegate.findById(id);
+    if (user != null) put(user);
+    return user;
+  }
+
+  @Override
+  public User findByEmail(String email) throws Exception {
+    var user = cached(byEmail.get(email));
+    if (user != null) return user;
+    user = delegate.findByEmail(email);
+    if (user != null) put(user);
+    return user;
+  }
+
+  // Cached users are answered from memory; the rest go to the delegate in one call and are cached.
+  @Override
+  public List<User> findByIds(Collection<Long> ids) throws Exception {
+    var out = new ArrayList<User>(ids.size());
+    var missing = new ArrayList<Long>();
+    for (var id : ids) {
+      var user = cached(byId.get(id));
+      if (user != null) out.add(user);
+      else missing.add(id);
+    }
+    if (!missing.isEmpty()) {
+      for (var user : delegate.findByIds(missing)) {
+        put(user);
+        out.add(user);
+      }
+    }
+    return out;
+  }
+
+  @Override
+  public boolean updatePasswordHash(long id, String expected, String newHash) throws Exception {
+    var updated = delegate.updatePasswordHash(id, expected, newHash);
+    var e = byId.remove(id);
+    if (e != null) byEmail.remove(e.user().email(), e);
+    return updated;
+  }
+
+  // The JOIN already carries the user, so it refreshes the cache on the way through.
+  @Override
+  public Session findSessionByRefresh(String refreshHash) throws Exception {
+    var session = delegate.findSessionByRefresh(refreshHash);
+    if (session != null && session.user() != null) put(session.user());
+    return session;
+  }
+
+  // Session rows never change the user, so nothing to invalidate.
+  @Override
+  public long[] writeSessions(List<SessionWrite> writes) throws Exception { return delegate.writeSessions(writes); }
+
+  @Override
+  public boolean deleteSession(long sessionId, long userId) throws Exception { return delegate.deleteSession(sessionId, userId); }
+
+  // Scans go straight to the delegate and are not cached.
+  @Override
+  public List<User> listUsers(long afterId, int limit) throws Exception { return delegate.listUsers(afterId, limit); }
+
+  @Override
+  public int purgeExpiredSessions(int limit) throws Exception { return delegate.purgeExpiredSessions(limit); }
+
+  @Override
+  public void saveRevocation(String jti, long sessionId, long expiresAt) throws Exception { delegate.saveRevocation(jti, sessionId, expiresAt); }
+
+  @Override
+  public List<Revocation> listRevocations(long afterId, int limit) throws Exception { return delegate.listRevocations(afterId, limit); }
+
+  @Override
+  public int purgeExpiredRevocations(int limit) throws Exception { return delegate.purgeExpiredRevocations(limit); }
+
+  public void invalidate(String email) {
+    var e = byEmail.remove(email);
+    if (e != null) byId.remove(e.user().id(), e);
+  }
+
+  private User cached(Entry e) {
+    if (e == null || e.expiresAtMillis() <= System.currentTimeMillis()) {
+      misses.increment();
+      return null;
+    }
+    hits.increment();
+    return e.user();
+  }
+
+  private void put(User user) {
+    if (maxEntries <= 0) return;
+    var e = new Entry(user, System.currentTimeMillis() + ttlMillis);
+    var old = byId.put(user.id(), e);
+    if (old != null && !old.user().email().equals(user.email())) byEmail.remove(old.user().email(), old);
+    byEmail.put(user.email(), e);
+    if (byId.size() > maxEntries && shrinking.compareAndSet(false, true)) {
+      try { shrink(); } finally { shrinking.set(false); }
+    }
+  }
+
+  private void shrink() {
+    var now = System.currentTimeMillis();
+    var target = maxEntries - Math.max(1, maxEntries / 10);
+    for (var it = byId.values().iterator(); it.hasNext(); ) {
+      var e = it.next();
+      if (e.expiresAtMillis() <= now) {
+        it.remove();
+        byEmail.remove(e.user().email(), e);
+      }
+    }
+    for (var it = byId.values().iterator(); byId.size() > target && it.hasNext(); ) {
+      var e = it.next();
+      it.remove();
+      byEmail.remove(e.user().email(), e);
+      evictions.increment();
+    }
+  }
+
+  public Stats stats() {
+    return new Stats(byId.size(), hits.sum(), misses.sum(), evictions.sum());
+  }
+}
@@ -0,0 +1,40 @@
+package ink.bluballz.chat.auth.server;
+
+import io.grpc.*;
+
+import java.util.concurrent.Semaphore;
+
+// Caps in-flight calls, refusing the rest with RESOURCE_EXHAUSTED; virtual threads no longer bound them.
+public class CallLimiter implements ServerInterceptor {
+  private final Semaphore permits;
+
+  public CallLimiter(int maxConcurrentCalls) { this.permits = new Semaphore(maxConcurrentCalls); }
+
+  @Override
+  public <Q, R> ServerCall.Listener<Q> interceptCall(ServerCall<Q, R> call, Metadata headers, ServerCallHandler<Q, R> next) {
+    if (!permits.tryAcquire()) {
+      call.close(Status.RESOURCE_EXHAUSTED.withDescription("Too many concurrent calls"), new Metadata());
+      return new ServerCall.Listener<>() {};
+    }
+    ServerCall.Listener<Q> delegate;
+    try {
+      delegate = next.startCall(call, headers);
+    } catch (RuntimeException e) {
+      permits.release();
+      throw e;
+    }
+    return new ForwardingServerCallListener.SimpleForwardingServerCallListener<>(delegate) {
+      @Override
+      public void onComplete() {
+        try { super.onComplete(); } finally { permits.release(); }
+      }
+
+      @Override
+      public void onCancel() {
+        try { super.onCancel(); } finally { permits.release(); }
+      }
+    };
+  }
+
+  public int available() { return permits.availablePermits(); }
+}
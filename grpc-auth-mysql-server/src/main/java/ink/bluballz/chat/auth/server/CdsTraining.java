@@ -0,0 +1,78 @@
+package ink.bluballz.chat.auth.server;
+
+import com.zaxxer.hikari.HikariConfig;
+import ink.bluballz.chat.auth.v1.*;
+import io.grpc.StatusRuntimeException;
+import io.grpc.health.v1.HealthCheckRequest;
+import io.grpc.health.v1.HealthGrpc;
+import io.grpc.netty.shaded.io.grpc.netty.NettyChannelBuilder;
+import io.grpc.stub.StreamObserver;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+// Client half of the --cds-training run: calls every RPC once so the classes they touch land in the archive.
+class CdsTraining {
+  static void run(int port) throws Exception {
+    Class.forName("com.mysql.cj.jdbc.Driver");
+    new HikariConfig();
+
+    var channel = NettyChannelBuilder.forAddress("127.0.0.1", port).usePlaintext().build();
+    try {
+      var stub = AuthServiceGrpc.newBlockingStub(channel);
+      HealthGrpc.newBlockingStub(channel).check(HealthCheckRequest.getDefaultInstance());
+      var reg = stub.register(RegisterRequest.newBuilder()
+          .setEmail("training@example.com").setPassword("training-password").setDisplayName("Training").build());
+      var login = stub.login(LoginRequest.newBuilder().setEmail("training@example.com").setPassword("training-password").build());
+      stub.refresh(RefreshRequest.newBuilder().setRefreshToken(login.getTokens().getRefreshToken()).build());
+      stub.validateToken(ValidateTokenRequest.newBuilder().setToken(reg.getTokens().getAccessToken()).build());
+      stub.getSigningKeys(GetSigningKeysRequest.getDefaultInstance());
+      stub.searchUsers(SearchUsersRequest.newBuilder().setAccessToken(login.getTokens().getAccessToken()).setQuery("train").build());
+      stub.getUsers(GetUsersRequest.newBuilder().setAccessToken(login.getTokens().getAccessToken()).addUserIds(reg.getUserId()).build());
+      // Without SERVICE_TOKEN set this is refused with PERMISSION_DENIED, which still loads the messages.
+      try {
+        stub.listUsers(ListUsersRequest.newBuilder().setServiceToken(System.getenv().getOrDefault("SERVICE_TOKEN", "")).build())
+            .forEachRemaining(page -> { });
+      } catch (StatusRuntimeException e) {
+        // expected without a token
+      }
+      // WatchUsers opens with RESYNC; the blocking iterator is dropped after it, cancelling the call.
+      try {
+        AuthServiceGrpc.newBlockingStub(channel).withDeadlineAfter(5, TimeUnit.SECONDS)
+            .watchUsers(WatchUsersRequest.newBuilder().setServiceToken(System.getenv().getOrDefault("SERVICE_TOKEN", "")).build())
+            .next();
+      } catch (StatusRuntimeException e) {
+        // expected without a token
+      }
+      stub.revokeSession(RevokeSessionRequest.newBuilder()
+          .setAccessToken(login.getTokens().getAccessToken()).setSessionId(reg.getTokens().getSessionId()).build());
+      // both sessions are revoked from here on, so calls needing an access token go above
+      stub.logout(LogoutRequest.newBuilder().setAccessToken(login.getTokens().getAccessToken()).build());
+
+      var done = new CountDownLatch(1);
+      var requests = AuthServiceGrpc.newStub(channel).validateTokens(new StreamObserver<>() {
+        @Override public void onNext(ValidateTokensResponse r) { }
+        @Override public void onError(Throwable t) { done.countDown(); }
+        @Override public void onCompleted() { done.countDown(); }
+      });
+      requests.onNext(ValidateTokensRequest.newBuilder().setCorrelationId(1).setToken(reg.getTokens().getAccessToken()).build());
+      requests.onNext(ValidateTokensRequest.newBuilder().setCorrelationId(2).setToken("not-a-token").build());
+      requests.onCompleted();
+      done.await(10, TimeUnit.SECONDS);
+
+      // Without IMPORT_TOKEN set this is refused with PERMISSION_DENIED, which still loads the messages.
+      var imported = new CountDownLatch(1);
+      var imports = AuthServiceGrpc.newStub(channel).importUsers(new StreamObserver<>() {
+        @Override public void onNext(ImportUsersResponse r) { }
+        @Override public void onError(Throwable t) { imported.countDown(); }
+        @Override public void onCompleted() { imported.countDown(); }
+      });
+      imports.onNext(ImportUsersRequest.newBuilder().setImportToken(System.getenv().getOrDefault("IMPORT_TOKEN", ""))
+          .addUsers(ImportUser.newBuilder().setEmail("imported@example.com").setPassword("training-password")).build());
+      imports.onCompleted();
+      imported.await(10, TimeUnit.SECONDS);
+    } finally {
+      channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+    }
+  }
+}
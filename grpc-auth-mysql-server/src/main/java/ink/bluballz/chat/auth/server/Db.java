@@ -2,22 +2,54 @@ package ink.bluballz.chat.auth.server;
 
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import com.zaxxer.hikari.metrics.IMetricsTracker;
 
 import javax.sql.DataSource;
 
+// The primary pool, plus an optional read-only pool on a replica that UserDao sends lookups to.
 public class Db {
+  public record Replica(String url, String user, String pass, int poolSize) {}
+
   private final HikariDataSource ds;
+  private final HikariDataSource replica;
+  private final Histogram acquireTime = new Histogram();
+  private final Histogram replicaAcquireTime = new Histogram();
 
   public Db(String url, String user, String pass) {
+    this(url, user, pass, 10, null);
+  }
+
+  public Db(String url, String user, String pass, int poolSize, Replica replica) {
+    this.ds = pool("auth-hikari", url, user, pass, poolSize, false, acquireTime);
+    this.replica = replica == null ? null
+        : pool("auth-hikari-replica", replica.url(), replica.user(), replica.pass(), replica.poolSize(), true, replicaAcquireTime);
+  }
+
+  private static HikariDataSource pool(String name, String url, String user, String pass, int size, boolean readOnly, Histogram acquire) {
     var cfg = new HikariConfig();
     cfg.setJdbcUrl(url);
     cfg.setUsername(user);
     cfg.setPassword(pass);
-    cfg.setMaximumPoolSize(10);
+    cfg.setMaximumPoolSize(size);
     cfg.setMinimumIdle(1);
-    cfg.setPoolName("auth-hikari");
-    this.ds = new HikariDataSource(cfg);
+    cfg.setReadOnly(readOnly);
+    cfg.setPoolName(name);
+    cfg.setMetricsTrackerFactory((pool, stats) -> new IMetricsTracker() {
+      @Override
+      public void recordConnectionAcquiredNanos(long nanos) { acquire.observeNanos(nanos); }
+    });
+    return new HikariDataSource(cfg);
   }
 
   public DataSource ds() { return ds; }
+  public int maxConnections() { return ds.getMaximumPoolSize(); }
+  public HikariPoolMXBean pool() { return ds.getHikariPoolMXBean(); }
+  public Histogram acquireTime() { return acquireTime; }
+
+  // null when no replica is configured
+  public DataSource replica() { return replica; }
+  public int replicaMaxConnections() { return replica == null ? 0 : replica.getMaximumPoolSize(); }
+  public HikariPoolMXBean replicaPool() { return replica == null ? null : replica.getHikariPoolMXBean(); }
+  public Histogram replicaAcquireTime() { return replicaAcquireTime; }
 }
@@ -0,0 +1,137 @@
+package ink.bluballz.chat.auth.server;
+
+import io.grpc.Status;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+// bcrypt on a fixed pool behind a bounded queue; a full queue fails the call with RESOURCE_EXHAUSTED.
+public class HashEngine implements AutoCloseable {
+  private final ThreadPoolExecutor pool;
+  private final int cost;
+  private final Stage hashStage = new Stage("hash");
+  private final Stage verifyStage = new Stage("verify");
+  private final Stage rehashStage = new Stage("rehash");
+  private final Stage importStage = new Stage("import");
+
+  public HashEngine(int threads, int queueCapacity) {
+    this(threads, queueCapacity, PasswordUtil.DEFAULT_COST);
+  }
+
+  public HashEngine(int threads, int queueCapacity, int cost) {
+    this.cost = cost;
+    var seq = new AtomicInteger();
+    this.pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(queueCapacity),
+        r -> {
+          var t = new Thread(r, "bcrypt-" + seq.incrementAndGet());
+          t.setDaemon(true);
+          return t;
+        },
+        new ThreadPoolExecutor.AbortPolicy());
+  }
+
+  public CompletableFuture<String> hash(String plain) {
+    return submit(hashStage, () -> PasswordUtil.hash(plain, cost));
+  }
+
+  // Upward only, so a host calibrated lower never weakens stored hashes and instances calibrated
+  // differently do not rewrite a user's hash back and forth.
+  public boolean needsRehash(String hash) { return PasswordUtil.cost(hash) < cost; }
+
+  // Background upgrade of a hash made at a lower cost. Only takes a worker when the queue is at most
+  // half full, so request-path hashing never waits behind it; a skipped rehash is retried on the
+  // user's next login.
+  public CompletableFuture<String> rehash(String plain) {
+    if (pool.getQueue().remainingCapacity() < pool.getQueue().size()) {
+      rehashStage.rejected.increment();
+      return CompletableFuture.completedFuture(null);
+    }
+    return submit(rehashStage, () -> PasswordUtil.hash(plain, cost));
+  }
+
+  // For ImportUsers, which keeps at most threads() of these outstanding so request-path work queues
+  // behind one round of imports at most.
+  public CompletableFuture<String> importHash(String plain, int cost) {
+    return submit(importStage, () -> PasswordUtil.hash(plain, cost));
+  }
+
+  public CompletableFuture<Boolean> verify(String plain, String hash) {
+    return submit(verifyStage, () -> PasswordUtil.verify(plain, hash));
+  }
+
+  public Stage hashStage() { return hashStage; }
+  public Stage verifyStage() { return verifyStage; }
+  public Stage rehashStage() { return rehashStage; }
+  public Stage importStage() { return importStage; }
+  public int threads() { return pool.getMaximumPoolSize(); }
+  public int cost() { return cost; }
+  public int queueDepth() { return pool.getQueue().size(); }
+
+  private <T> CompletableFuture<T> submit(Stage stage, Supplier<T> work) {
+    var f = new CompletableFuture<T>();
+    var enqueued = System.nanoTime();
+    stage.queued.incrementAndGet();
+    try {
+      pool.execute(() -> {
+        var started = System.nanoTime();
+        stage.queued.decrementAndGet();
+        stage.recordWait(started - enqueued);
+        try {
+          f.complete(work.get());
+        } catch (Throwable t) {
+          f.completeExceptionally(t);
+        } finally {
+          stage.recordRun(System.nanoTime() - started);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      stage.queued.decrementAndGet();
+      stage.rejected.increment();
+      f.completeExceptionally(Status.RESOURCE_EXHAUSTED.withDescription("Server busy, retry later").asRuntimeException());
+    }
+    return f;
+  }
+
+  @Override
+  public void close() { pool.shutdown(); }
+
+  public static final class Stage {
+    private final String name;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final Histogram waitTime = new Histogram();
+    private final Histogram runTime = new Histogram();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    Stage(String name) { this.name = name; }
+
+    private void recordWait(long nanos) {
+      waitTime.observeNanos(nanos);
+      maxWaitNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    private void recordRun(long nanos) {
+      runTime.observeNanos(nanos);
+      completed.increment();
+    }
+
+    public String name() { return name; }
+    public int queued() { return queued.get(); }
+    public long completed() { return completed.sum(); }
+    public long rejected() { return rejected.sum(); }
+    public Histogram waitTime() { return waitTime; }
+    public Histogram runTime() { return runTime; }
+    public long maxWaitNanos() { return maxWaitNanos.get(); }
+
+    @Override
+    public String toString() {
+      return String.format("%s{queued=%d, completed=%d, rejected=%d, avgWaitMs=%.2f, maxWaitMs=%.2f, avgRunMs=%.2f}",
+          name, queued(), completed(), rejected(), waitTime.meanMillis(), maxWaitNanos() / 1e6, runTime.meanMillis());
+    }
+  }
+}
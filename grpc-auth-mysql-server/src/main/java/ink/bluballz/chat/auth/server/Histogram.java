@@ -0,0 +1,51 @@
+package ink.bluballz.chat.auth.server;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// Fixed-bucket latency histogram with lock-free recording, rendered in Prometheus form by Metrics.
+public final class Histogram {
+  static final double[] LATENCY_SECONDS = {
+      0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+
+  private final double[] bounds;
+  private final LongAdder[] buckets;
+  private final LongAdder count = new LongAdder();
+  private final LongAdder sumNanos = new LongAdder();
+
+  public Histogram() { this(LATENCY_SECONDS); }
+
+  public Histogram(double[] boundsSeconds) {
+    this.bounds = boundsSeconds.clone();
+    this.buckets = new LongAdder[bounds.length];
+    for (int i = 0; i < buckets.length; i++) buckets[i] = new LongAdder();
+  }
+
+  public void observeNanos(long nanos) {
+    var seconds = nanos / 1e9;
+    for (int i = 0; i < bounds.length; i++) {
+      if (seconds <= bounds[i]) {
+        buckets[i].increment();
+        break;
+      }
+    }
+    count.increment();
+    sumNanos.add(nanos);
+  }
+
+  public long count() { return count.sum(); }
+  public long sumNanos() { return sumNanos.sum(); }
+  public double meanMillis() { var n = count(); return n == 0 ? 0 : sumNanos() / 1e6 / n; }
+
+  double[] bounds() { return bounds; }
+
+  // Cumulative counts per bound, as Prometheus expects.
+  long[] cumulative() {
+    var out = new long[bounds.length];
+    long acc = 0;
+    for (int i = 0; i < bounds.length; i++) {
+      acc += buckets[i].sum();
+      out[i] = acc;
+    }
+    return out;
+  }
+}
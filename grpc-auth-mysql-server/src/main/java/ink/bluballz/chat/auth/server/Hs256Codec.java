@@ -0,0 +1,391 @@
+package ink.bluballz.chat.auth.server;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// HS256 access tokens in the same shape jjwt writes, encoded and verified without per-call allocation.
+public final class Hs256Codec {
+  public static class InvalidTokenException extends RuntimeException {
+    public InvalidTokenException(String msg) { super(msg); }
+  }
+
+  private static final byte[] HEADER = "eyJhbGciOiJIUzI1NiJ9".getBytes(StandardCharsets.US_ASCII); // {"alg":"HS256"}
+  private static final byte[] B64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] B64_INV = new byte[128];
+  static {
+    Arrays.fill(B64_INV, (byte) -1);
+    for (int i = 0; i < B64.length; i++) B64_INV[B64[i]] = (byte) i;
+  }
+
+  private static final class Buffers {
+    final Mac mac;
+    byte[] json = new byte[512];
+    int jsonLen;
+    byte[] token = new byte[1024];
+    final byte[] sig = new byte[32];
+
+    Buffers(Mac mac) { this.mac = mac; }
+  }
+
+  private final ScratchPool<Buffers> pool;
+
+  public Hs256Codec(byte[] secret) {
+    var prototype = hmac(secret);
+    this.pool = new ScratchPool<>(() -> {
+      try {
+        return new Buffers((Mac) prototype.clone());
+      } catch (CloneNotSupportedException e) { throw new IllegalStateException(e); }
+    });
+  }
+
+  private static Mac hmac(byte[] secret) {
+    try {
+      var mac = Mac.getInstance("HmacSHA256");
+      mac.init(new SecretKeySpec(secret, "HmacSHA256"));
+      return mac;
+    } catch (Exception e) { throw new IllegalStateException(e); }
+  }
+
+  public String encode(String sub, String email, String name, long iat, long exp, String jti, long sid) {
+    var b = pool.acquire();
+    try {
+      return encode(b, sub, email, name, iat, exp, jti, sid);
+    } finally {
+      pool.release(b);
+    }
+  }
+
+  public JwtUtil.AccessClaims decode(String token, long nowEpochSeconds) {
+    var b = pool.acquire();
+    try {
+      return decode(b, token, nowEpochSeconds);
+    } finally {
+      pool.release(b);
+    }
+  }
+
+  private static String encode(Buffers b, String sub, String email, String name, long iat, long exp, String jti, long sid) {
+    var json = new Writer(b.json);
+    json.raw("{\"sub\":").str(sub).raw(",\"iat\":").num(iat).raw(",\"exp\":").num(exp)
+        .raw(",\"email\":").str(email).raw(",\"name\":").str(name).raw(",\"jti\":").str(jti);
+    if (sid != 0) json.raw(",\"sid\":").num(sid);
+    json.raw("}");
+    b.json = json.buf;
+
+    var need = HEADER.length + 1 + (json.len * 4 + 2) / 3 + 1 + 43;
+    if (b.token.length < need) b.token = new byte[Math.max(need, b.token.length * 2)];
+    var out = b.token;
+    System.arraycopy(HEADER, 0, out, 0, HEADER.length);
+    int pos = HEADER.length;
+    out[pos++] = '.';
+    pos = base64url(json.buf, json.len, out, pos);
+    b.mac.update(out, 0, pos);
+    try {
+      b.mac.doFinal(b.sig, 0);
+    } catch (Exception e) { throw new IllegalStateException(e); }
+    out[pos++] = '.';
+    pos = base64url(b.sig, b.sig.length, out, pos);
+    return new String(out, 0, pos, StandardCharsets.ISO_8859_1);
+  }
+
+  private static JwtUtil.AccessClaims decode(Buffers b, String token, long nowEpochSeconds) {
+    int len = token.length();
+    int dot1 = token.indexOf('.');
+    int dot2 = dot1 < 0 ? -1 : token.indexOf('.', dot1 + 1);
+    if (dot1 <= 0 || dot2 < 0 || token.indexOf('.', dot2 + 1) >= 0) throw new InvalidTokenException("Malformed token");
+    if (b.token.length < len) b.token = new byte[Math.max(len, b.token.length * 2)];
+    var raw = b.token;
+    for (int i = 0; i < len; i++) {
+      var c = token.charAt(i);
+      if (c >= 128) throw new InvalidTokenException("Malformed token");
+      raw[i] = (byte) c;
+    }
+
+    // signature first: nothing in an unauthenticated token gets parsed beyond the header check
+    if (!headerIsHs256(b, raw, dot1)) throw new InvalidTokenException("Unsupported header");
+    b.mac.update(raw, 0, dot2);
+    try {
+      b.mac.doFinal(b.sig, 0);
+    } catch (Exception e) { throw new IllegalStateException(e); }
+    if (len - dot2 - 1 != 43 || !signatureMatches(b.sig, raw, dot2 + 1)) throw new InvalidTokenException("Bad signature");
+
+    var json = decodeSegment(b, raw, dot1 + 1, dot2);
+    var claims = new Reader(json, b.jsonLen);
+    claims.readClaims();
+    if (claims.exp == Long.MIN_VALUE) throw new InvalidTokenException("Missing exp");
+    if (claims.exp <= nowEpochSeconds) throw new InvalidTokenException("Token expired");
+    if (claims.nbf != Long.MIN_VALUE && claims.nbf > nowEpochSeconds) throw new InvalidTokenException("Token not yet valid");
+    return new JwtUtil.AccessClaims(claims.sub, claims.email, claims.name, claims.iat == Long.MIN_VALUE ? 0 : claims.iat, claims.exp,
+        claims.jti, claims.sid == Long.MIN_VALUE ? 0 : claims.sid);
+  }
+
+  private static boolean headerIsHs256(Buffers b, byte[] raw, int end) {
+    if (end == HEADER.length && Arrays.equals(raw, 0, end, HEADER, 0, end)) return true;
+    var json = decodeSegment(b, raw, 0, end);
+    var r = new Reader(json, b.jsonLen);
+    return "HS256".equals(r.readHeaderAlg());
+  }
+
+  private static boolean signatureMatches(byte[] expected, byte[] raw, int from) {
+    int diff = 0, e = 0, bits = 0, acc = 0;
+    for (int i = from; i < from + 43; i++) {
+      int v = B64_INV[raw[i]];
+      if (v < 0) return false;
+      acc = (acc << 6) | v;
+      bits += 6;
+      if (bits >= 8) {
+        bits -= 8;
+        diff |= expected[e++] ^ (byte) (acc >> bits);
+      }
+    }
+    return diff == 0 && e == 32;
+  }
+
+  private static int base64url(byte[] in, int n, byte[] out, int pos) {
+    int i = 0;
+    for (; i + 2 < n; i += 3) {
+      int v = (in[i] & 0xff) << 16 | (in[i + 1] & 0xff) << 8 | (in[i + 2] & 0xff);
+      out[pos++] = B64[v >>> 18];
+      out[pos++] = B64[(v >>> 12) & 63];
+      out[pos++] = B64[(v >>> 6) & 63];
+      out[pos++] = B64[v & 63];
+    }
+    if (n - i == 1) {
+      int v = (in[i] & 0xff) << 16;
+      out[pos++] = B64[v >>> 18];
+      out[pos++] = B64[(v >>> 12) & 63];
+    } else if (n - i == 2) {
+      int v = (in[i] & 0xff) << 16 | (in[i + 1] & 0xff) << 8;
+      out[pos++] = B64[v >>> 18];
+      out[pos++] = B64[(v >>> 12) & 63];
+      out[pos++] = B64[(v >>> 6) & 63];
+    }
+    return pos;
+  }
+
+  // Decodes raw[from, to) into b.json and records the length in b.jsonLen.
+  private static byte[] decodeSegment(Buffers b, byte[] raw, int from, int to) {
+    int max = (to - from) * 3 / 4 + 3;
+    if (b.json.length < max) b.json = new byte[Math.max(max, b.json.length * 2)];
+    var out = b.json;
+    int bits = 0, acc = 0, n = 0;
+    for (int i = from; i < to; i++) {
+      int v = B64_INV[raw[i]];
+      if (v < 0) throw new InvalidTokenException("Malformed token");
+      acc = (acc << 6) | v;
+      bits += 6;
+      if (bits >= 8) {
+        bits -= 8;
+        out[n++] = (byte) (acc >> bits);
+      }
+    }
+    b.jsonLen = n;
+    return out;
+  }
+
+  private static final class Writer {
+    byte[] buf;
+    int len;
+
+    Writer(byte[] buf) { this.buf = buf; }
+
+    private void ensure(int extra) {
+      if (len + extra > buf.length) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + extra));
+    }
+
+    Writer raw(String ascii) {
+      ensure(ascii.length());
+      for (int i = 0; i < ascii.length(); i++) buf[len++] = (byte) ascii.charAt(i);
+      return this;
+    }
+
+    Writer num(long v) {
+      ensure(20);
+      if (v == 0) { buf[len++] = '0'; return this; }
+      if (v < 0) { buf[len++] = '-'; v = -v; }
+      int start = len;
+      while (v > 0) { buf[len++] = (byte) ('0' + v % 10); v /= 10; }
+      for (int i = start, j = len - 1; i < j; i++, j--) { var t = buf[i]; buf[i] = buf[j]; buf[j] = t; }
+      return this;
+    }
+
+    Writer str(String s) {
+      ensure(s.length() * 6 + 2);
+      buf[len++] = '"';
+      for (int i = 0; i < s.length(); i++) {
+        char c = s.charAt(i);
+        if (c == '"' || c == '\\') {
+          buf[len++] = '\\';
+          buf[len++] = (byte) c;
+        } else if (c < 0x20) {
+          buf[len++] = '\\'; buf[len++] = 'u'; buf[len++] = '0'; buf[len++] = '0';
+          buf[len++] = (byte) Character.forDigit(c >> 4, 16);
+          buf[len++] = (byte) Character.forDigit(c & 15, 16);
+        } else if (c < 0x80) {
+          buf[len++] = (byte) c;
+        } else if (c < 0x800) {
+          buf[len++] = (byte) (0xc0 | c >> 6);
+          buf[len++] = (byte) (0x80 | c & 0x3f);
+        } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+          int cp = Character.toCodePoint(c, s.charAt(++i));
+          buf[len++] = (byte) (0xf0 | cp >> 18);
+          buf[len++] = (byte) (0x80 | (cp >> 12) & 0x3f);
+          buf[len++] = (byte) (0x80 | (cp >> 6) & 0x3f);
+          buf[len++] = (byte) (0x80 | cp & 0x3f);
+        } else {
+          buf[len++] = (byte) (0xe0 | c >> 12);
+          buf[len++] = (byte) (0x80 | (c >> 6) & 0x3f);
+          buf[len++] = (byte) (0x80 | c & 0x3f);
+        }
+      }
+      buf[len++] = '"';
+      return this;
+    }
+  }
+
+  // Reads the flat JSON objects used for JWS headers and our claims; nested values are skipped.
+  private static final class Reader {
+    final byte[] in;
+    final int end;
+    int pos;
+    String sub, email, name, jti;
+    long iat = Long.MIN_VALUE, exp = Long.MIN_VALUE, nbf = Long.MIN_VALUE, sid = Long.MIN_VALUE;
+
+    Reader(byte[] in, int end) {
+      this.in = in;
+      this.end = end;
+    }
+
+    void readClaims() {
+      readObject((key, r) -> {
+        switch (key) {
+          case "sub" -> sub = r.string();
+          case "email" -> email = r.string();
+          case "name" -> name = r.string();
+          case "iat" -> iat = r.number();
+          case "exp" -> exp = r.number();
+          case "nbf" -> nbf = r.number();
+          case "jti" -> jti = r.string();
+          case "sid" -> sid = r.number();
+          default -> r.skipValue();
+        }
+      });
+    }
+
+    String readHeaderAlg() {
+      var alg = new String[1];
+      readObject((key, r) -> {
+        if (key.equals("alg")) alg[0] = r.string();
+        else if (key.equals("crit")) throw new InvalidTokenException("Unsupported header");
+        else r.skipValue();
+      });
+      return alg[0];
+    }
+
+    private interface Field { void read(String key, Reader r); }
+
+    private void readObject(Field field) {
+      ws();
+      expect('{');
+      ws();
+      if (peek() == '}') { pos++; return; }
+      while (true) {
+        ws();
+        var key = string();
+        ws();
+        expect(':');
+        ws();
+        field.read(key, this);
+        ws();
+        var c = next();
+        if (c == '}') break;
+        if (c != ',') throw new InvalidTokenException("Malformed claims");
+      }
+      ws();
+      if (pos != end) throw new InvalidTokenException("Malformed claims");
+    }
+
+    String string() {
+      expect('"');
+      int start = pos;
+      while (pos < end && in[pos] != '"' && in[pos] != '\\') pos++;
+      if (pos < end && in[pos] == '"') {
+        var s = new String(in, start, pos - start, StandardCharsets.UTF_8);
+        pos++;
+        return s;
+      }
+      var sb = new StringBuilder(new String(in, start, pos - start, StandardCharsets.UTF_8));
+      int chunk = pos;
+      while (true) {
+        if (pos >= end) throw new InvalidTokenException("Malformed claims");
+        var c = in[pos];
+        if (c == '"') {
+          sb.append(new String(in, chunk, pos - chunk, StandardCharsets.UTF_8));
+          pos++;
+          return sb.toString();
+        }
+        if (c != '\\') { pos++; continue; }
+        sb.append(new String(in, chunk, pos - chunk, StandardCharsets.UTF_8));
+        pos++;
+        var e = next();
+        switch (e) {
+          case '"', '\\', '/' -> sb.append((char) e);
+          case 'b' -> sb.append('\b');
+          case 'f' -> sb.append('\f');
+          case 'n' -> sb.append('\n');
+          case 'r' -> sb.append('\r');
+          case 't' -> sb.append('\t');
+          case 'u' -> {
+            if (pos + 4 > end) throw new InvalidTokenException("Malformed claims");
+            int u = 0;
+            for (int i = 0; i < 4; i++) {
+              var d = Character.digit(in[pos++], 16);
+              if (d < 0) throw new InvalidTokenException("Malformed claims");
+              u = u << 4 | d;
+            }
+            sb.append((char) u);
+          }
+          default -> throw new InvalidTokenException("Malformed claims");
+        }
+        chunk = pos;
+      }
+    }
+
+    long number() {
+      int start = pos;
+      boolean integral = true;
+      while (pos < end) {
+        var c = in[pos];
+        if (c == '.' || c == 'e' || c == 'E') integral = false;
+        else if (!(c == '-' || c == '+' || (c >= '0' && c <= '9'))) break;
+        pos++;
+      }
+      if (start == pos) throw new InvalidTokenException("Malformed claims");
+      var s = new String(in, start, pos - start, StandardCharsets.US_ASCII);
+      return integral ? Long.parseLong(s) : (long) Double.parseDouble(s);
+    }
+
+    void skipValue() {
+      var c = peek();
+      if (c == '"') { string(); return; }
+      if (c == '{' || c == '[') {
+        int depth = 0;
+        do {
+          c = next();
+          if (c == '"') { pos--; string(); continue; }
+          if (c == '{' || c == '[') depth++;
+          else if (c == '}' || c == ']') depth--;
+        } while (depth > 0);
+        return;
+      }
+      while (pos < end && in[pos] != ',' && in[pos] != '}') pos++;
+    }
+
+    private void ws() { while (pos < end && (in[pos] == ' ' || in[pos] == '\n' || in[pos] == '\r' || in[pos] == '\t')) pos++; }
+    private byte peek() { if (pos >= end) throw new InvalidTokenException("Malformed claims"); return in[pos]; }
+    private byte next() { var c = peek(); pos++; return c; }
+    private void expect(char c) { if (next() != c) throw new InvalidTokenException("Malformed claims"); }
+  }
+}
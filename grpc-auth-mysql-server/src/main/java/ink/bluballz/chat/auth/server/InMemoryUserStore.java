@@ -0,0 +1,148 @@
+package ink.bluballz.chat.auth.server;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// UserStore kept in the process with UserDao's uniqueness rules, for tests, benchmarks and offline load runs.
+public class InMemoryUserStore implements UserStore {
+  private final ConcurrentHashMap<String, User> byEmail = new ConcurrentHashMap<>();
+  private final ConcurrentSkipListMap<Long, User> byId = new ConcurrentSkipListMap<>();
+  private final ConcurrentHashMap<String, Session> byRefresh = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<Long, String> refreshBySession = new ConcurrentHashMap<>();
+  private final AtomicLong userIds = new AtomicLong();
+  private final AtomicLong sessionIds = new AtomicLong();
+  private final ConcurrentSkipListMap<Long, Revocation> revocations = new ConcurrentSkipListMap<>();
+  private final AtomicLong revocationIds = new AtomicLong();
+
+  @Override
+  public boolean existsByEmail(String email) { return byEmail.containsKey(email); }
+
+  @Override
+  public Session insertUser(String email, String display, String pwdHash, String refreshHash, Instant refreshExpires) throws Exception {
+    var user = new User(userIds.incrementAndGet(), email, display, pwdHash);
+    if (byEmail.putIfAbsent(email, user) != null) throw new DuplicateEmailException(email);
+    byId.put(user.id(), user);
+    return putSession(sessionIds.incrementAndGet(), user, refreshHash, refreshExpires);
+  }
+
+  @Override
+  public long[] importUsers(List<NewUser> users) {
+    var ids = new long[users.size()];
+    for (int i = 0; i < ids.length; i++) {
+      var n = users.get(i);
+      var user = new User(userIds.incrementAndGet(), n.email(), n.displayName(), n.passwordHash());
+      if (byEmail.putIfAbsent(n.email(), user) != null) continue;
+      byId.put(user.id(), user);
+      ids[i] = user.id();
+    }
+    return ids;
+  }
+
+  @Override
+  public User findById(long id) { return byId.get(id); }
+
+  @Override
+  public User findByEmail(String email) { return byEmail.get(email); }
+
+  @Override
+  public List<User> findByIds(Collection<Long> ids) {
+    return ids.stream().map(byId::get).filter(Objects::nonNull).toList();
+  }
+
+  @Override
+  public List<User> listUsers(long afterId, int limit) {
+    return byId.tailMap(afterId, false).values().stream().limit(limit).toList();
+  }
+
+  @Override
+  public boolean updatePasswordHash(long id, String expected, String newHash) {
+    var user = byId.get(id);
+    if (user == null || !user.passwordHash().equals(expected)) return false;
+    var updated = new User(id, user.email(), user.displayName(), newHash);
+    if (!byId.replace(id, user, updated)) return false;
+    byEmail.put(user.email(), updated);
+    return true;
+  }
+
+  @Override
+  public Session findSessionByRefresh(String refreshHash) { return byRefresh.get(refreshHash); }
+
+  @Override
+  public synchronized long[] writeSessions(List<SessionWrite> writes) {
+    var ids = new long[writes.size()];
+    for (int i = 0; i < ids.length; i++) {
+      var w = writes.get(i);
+      if (w.isInsert()) {
+        ids[i] = putSession(sessionIds.incrementAndGet(), byId.get(w.userId()), w.refreshHash(), w.expires()).id();
+      } else {
+        var session = byRefresh.get(w.previousHash());
+        if (session == null || session.id() != w.sessionId()) continue;
+        byRefresh.remove(w.previousHash());
+        putSession(session.id(), session.user(), w.refreshHash(), w.expires());
+        ids[i] = w.sessionId();
+      }
+    }
+    return ids;
+  }
+
+  @Override
+  public synchronized boolean deleteSession(long sessionId, long userId) {
+    var hash = refreshBySession.get(sessionId);
+    var session = hash == null ? null : byRefresh.get(hash);
+    if (session == null || session.user().id() != userId || !byRefresh.remove(hash, session)) return false;
+    refreshBySession.remove(sessionId, hash);
+    return true;
+  }
+
+  @Override
+  public void saveRevocation(String jti, long sessionId, long expiresAt) {
+    var id = revocationIds.incrementAndGet();
+    revocations.put(id, new Revocation(id, jti, sessionId, expiresAt));
+  }
+
+  @Override
+  public List<Revocation> listRevocations(long afterId, int limit) {
+    var now = Instant.now().getEpochSecond();
+    return revocations.tailMap(afterId, false).values().stream().filter(r -> r.expiresAt() > now).limit(limit).toList();
+  }
+
+  @Override
+  public int purgeExpiredRevocations(int limit) {
+    var now = Instant.now().getEpochSecond();
+    int n = 0;
+    for (var it = revocations.values().iterator(); it.hasNext() && n < limit; ) {
+      if (it.next().expiresAt() < now) {
+        it.remove();
+        n++;
+      }
+    }
+    return n;
+  }
+
+  @Override
+  public int purgeExpiredSessions(int limit) {
+    var now = Instant.now();
+    int n = 0;
+    for (var it = byRefresh.values().iterator(); it.hasNext() && n < limit; ) {
+      var s = it.next();
+      if (s.expires().isBefore(now)) {
+        it.remove();
+        refreshBySession.remove(s.id());
+        n++;
+      }
+    }
+    return n;
+  }
+
+  private Session putSession(long id, User user, String refreshHash, Instant expires) {
+    var session = new Session(id, user, expires);
+    byRefresh.put(refreshHash, session);
+    refreshBySession.put(id, refreshHash);
+    return session;
+  }
+}
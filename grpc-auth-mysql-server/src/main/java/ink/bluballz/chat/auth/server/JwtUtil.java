@@ -1,54 +1,172 @@
 package ink.bluballz.chat.auth.server;
 
 import io.jsonwebtoken.*;
-import io.jsonwebtoken.security.Keys;
 
-import javax.crypto.SecretKey;
 import java.nio.charset.StandardCharsets;
+import java.security.Key;
 import java.security.MessageDigest;
-import java.time.Instant;
 import java.util.Date;
+import java.util.HexFormat;
 import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
 
 public class JwtUtil {
-  private final SecretKey key;
+  private final SigningKeys keys;
+  private final JwtParser parser;
+  private final Hs256Codec hs256;
+  private final TokenCache cache;
+  private final RevocationList revocations;
+  private final Histogram signTime = new Histogram();
+  private final Histogram verifyTime = new Histogram();
   private final int accessMinutes;
   private final int refreshDays;
 
   public record Access(String token, long expiresAt) {}
+  // jti identifies the token and sessionId the device session it was issued for (0 when unknown); both
+  // are what Logout/RevokeSession revoke.
+  public record AccessClaims(String userId, String email, String name, long issuedAt, long expiresAt, String jti, long sessionId) {}
 
   public JwtUtil(String secret, int accessMinutes, int refreshDays) {
-    this.key = Keys.hmacShaKeyFor(secret.getBytes(StandardCharsets.UTF_8));
+    this(secret, accessMinutes, refreshDays, 0);
+  }
+
+  public JwtUtil(String secret, int accessMinutes, int refreshDays, int cacheEntries) {
+    this(SigningKeys.hmac(secret), accessMinutes, refreshDays, cacheEntries);
+  }
+
+  public JwtUtil(SigningKeys keys, int accessMinutes, int refreshDays, int cacheEntries) {
+    this(keys, accessMinutes, refreshDays, cacheEntries, new RevocationList(1024));
+  }
+
+  public JwtUtil(SigningKeys keys, int accessMinutes, int refreshDays, int cacheEntries, RevocationList revocations) {
+    this.keys = keys;
+    this.parser = keys.isHmac()
+        ? Jwts.parserBuilder().setSigningKey(keys.signingKey()).build()
+        : Jwts.parserBuilder().setSigningKeyResolver(new SigningKeyResolverAdapter() {
+            @Override
+            public Key resolveSigningKey(JwsHeader header, Claims claims) { return keys.verificationKey(header.getKeyId()); }
+          }).build();
+    this.hs256 = keys.isHmac() ? new Hs256Codec(keys.signingKey().getEncoded()) : null;
+    this.cache = new TokenCache(cacheEntries);
+    this.revocations = revocations;
     this.accessMinutes = accessMinutes;
     this.refreshDays = refreshDays;
   }
 
-  public Access issueAccess(String userId, String email, String display) {
-    var now = Instant.now();
-    var exp = now.plusSeconds(accessMinutes * 60L);
-    var token = Jwts.builder()
-        .setSubject(userId)
-        .setIssuedAt(Date.from(now))
-        .setExpiration(Date.from(exp))
-        .addClaims(Map.of("email", email, "name", display))
-        .signWith(key, SignatureAlgorithm.HS256)
-        .compact();
-    return new Access(token, exp.getEpochSecond());
+  public Access issueAccess(String userId, String email, String display, long sessionId) {
+    var started = System.nanoTime();
+    var now = System.currentTimeMillis() / 1000;
+    var exp = now + accessMinutes * 60L;
+    var rnd = ThreadLocalRandom.current();
+    var jti = HexFormat.of().toHexDigits(rnd.nextLong()) + HexFormat.of().toHexDigits(rnd.nextLong());
+    String token;
+    if (hs256 != null) {
+      token = hs256.encode(userId, email, display, now, exp, jti, sessionId);
+    } else {
+      token = Jwts.builder()
+          .setHeaderParam(JwsHeader.KEY_ID, keys.kid())
+          .setSubject(userId)
+          .setId(jti)
+          .setIssuedAt(new Date(now * 1000))
+          .setExpiration(new Date(exp * 1000))
+          .addClaims(sessionId != 0 ? Map.of("email", email, "name", display, "sid", sessionId) : Map.of("email", email, "name", display))
+          .signWith(keys.signingKey(), keys.algorithm())
+          .compact();
+    }
+    signTime.observeNanos(System.nanoTime() - started);
+    return new Access(token, exp);
+  }
+
+  public AccessClaims parseAccess(String token) {
+    var digest = sha256(token);
+    var claims = cache.get(digest);
+    return notRevoked(claims != null ? claims : verify(token, digest));
   }
 
-  public Claims parseAccess(String token) {
-    return Jwts.parserBuilder().setSigningKey(key).build().parseClaimsJws(token).getBody();
+  public AccessClaims cachedAccess(String token) {
+    var claims = cache.get(sha256(token));
+    return claims == null ? null : notRevoked(claims);
   }
 
+  public AccessClaims verifyAccess(String token) { return notRevoked(verify(token, sha256(token))); }
+
+  // Revocation is checked after the cache so a cached token can still be revoked.
+  private AccessClaims notRevoked(AccessClaims claims) {
+    if (revocations.isRevoked(claims)) throw new JwtException("Token revoked");
+    return claims;
+  }
+
+  private AccessClaims verify(String token, String digest) {
+    var started = System.nanoTime();
+    try {
+      AccessClaims claims;
+      if (hs256 != null) {
+        claims = hs256.decode(token, System.currentTimeMillis() / 1000);
+      } else {
+        var c = parser.parseClaimsJws(token).getBody();
+        var sid = c.get("sid", Long.class);
+        claims = new AccessClaims(c.getSubject(), c.get("email", String.class), c.get("name", String.class),
+            c.getIssuedAt() == null ? 0 : c.getIssuedAt().getTime() / 1000, c.getExpiration().getTime() / 1000,
+            c.getId(), sid == null ? 0 : sid);
+      }
+      cache.put(digest, claims);
+      return claims;
+    } finally {
+      verifyTime.observeNanos(System.nanoTime() - started);
+    }
+  }
+
+  public int accessMinutes() { return accessMinutes; }
   public int refreshDays() { return refreshDays; }
+  public RevocationList revocations() { return revocations; }
+  public SigningKeys keys() { return keys; }
+  public TokenCache.Stats cacheStats() { return cache.stats(); }
+  public Histogram signTime() { return signTime; }
+  public Histogram verifyTime() { return verifyTime; }
+
+  private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+  private record Sha256(MessageDigest md, byte[] buf) {}
+  private static final ScratchPool<Sha256> SHA256 = new ScratchPool<>(() -> {
+    try { return new Sha256(MessageDigest.getInstance("SHA-256"), new byte[96]); } catch (Exception e) { throw new IllegalStateException(e); }
+  });
 
+  // Lower-case hex SHA-256 of the UTF-8 bytes. Tokens are ASCII, so they are fed to the digest from a
+  // pooled buffer without an intermediate byte[]; the hex string is the only allocation.
   public static String sha256(String s) {
+    var scratch = SHA256.acquire();
     try {
-      MessageDigest md = MessageDigest.getInstance("SHA-256");
-      byte[] hash = md.digest(s.getBytes(StandardCharsets.UTF_8));
-      StringBuilder sb = new StringBuilder();
-      for (byte b : hash) sb.append(String.format("%02x", b));
-      return sb.toString();
-    } catch (Exception e) { throw new RuntimeException(e); }
-  }
-}
\ No newline at end of file
+      return sha256(s, scratch.md(), scratch.buf());
+    } finally {
+      SHA256.release(scratch);
+    }
+  }
+
+  private static String sha256(String s, MessageDigest md, byte[] buf) {
+    int n = s.length();
+    int i = 0;
+    while (i < n) {
+      int chunk = Math.min(buf.length, n - i);
+      int j = 0;
+      for (; j < chunk; j++) {
+        var c = s.charAt(i + j);
+        if (c >= 0x80) break;
+        buf[j] = (byte) c;
+      }
+      md.update(buf, 0, j);
+      i += j;
+      if (j < chunk) {
+        md.update(s.substring(i).getBytes(StandardCharsets.UTF_8));
+        break;
+      }
+    }
+    try {
+      md.digest(buf, 0, 32);
+    } catch (Exception e) { throw new IllegalStateException(e); }
+    for (int k = 31; k >= 0; k--) {
+      var b = buf[k];
+      buf[2 * k + 1] = HEX[b & 15];
+      buf[2 * k] = HEX[(b >> 4) & 15];
+    }
+    return new String(buf, 0, 64, StandardCharsets.ISO_8859_1);
+  }
+}
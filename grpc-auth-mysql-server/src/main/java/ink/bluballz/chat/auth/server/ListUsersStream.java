@@ -0,0 +1,50 @@
+package ink.bluballz.chat.auth.server;
+
+import ink.bluballz.chat.auth.v1.ListUsersResponse;
+import ink.bluballz.chat.auth.v1.UserSummary;
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+
+// One ListUsers export, reading a page by id keyset only while the call is ready for more.
+class ListUsersStream {
+  private final UserStore users;
+  private final int pageSize;
+  private final ServerCallStreamObserver<ListUsersResponse> resp;
+  private long cursor;
+  private boolean done;
+
+  ListUsersStream(UserStore users, long afterId, int pageSize, StreamObserver<ListUsersResponse> resp) {
+    this.users = users;
+    this.pageSize = pageSize;
+    this.cursor = afterId;
+    this.resp = (ServerCallStreamObserver<ListUsersResponse>) resp;
+    this.resp.setOnCancelHandler(() -> done = true);
+    this.resp.setOnReadyHandler(this::pump);
+  }
+
+  // gRPC runs the onReady handler and the first pump serially for a call, so no locking is needed.
+  void pump() {
+    try {
+      while (!done && resp.isReady()) {
+        var page = users.listUsers(cursor, pageSize);
+        if (!page.isEmpty()) {
+          var out = ListUsersResponse.newBuilder();
+          for (var u : page) {
+            out.addUsers(UserSummary.newBuilder().setUserId(Long.toString(u.id())).setEmail(u.email()).setDisplayName(u.displayName()));
+          }
+          cursor = page.get(page.size() - 1).id();
+          resp.onNext(out.setLastUserId(cursor).build());
+        }
+        if (page.size() < pageSize) {
+          done = true;
+          resp.onCompleted();
+        }
+      }
+    } catch (Exception e) {
+      if (done) return;
+      done = true;
+      resp.onError(Status.INTERNAL.withDescription(e.getMessage()).asRuntimeException());
+    }
+  }
+}
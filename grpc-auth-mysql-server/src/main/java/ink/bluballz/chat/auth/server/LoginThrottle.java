@@ -0,0 +1,94 @@
+package ink.bluballz.chat.auth.server;
+
+import ink.bluballz.chat.auth.v1.AuthServiceGrpc;
+import ink.bluballz.chat.auth.v1.LoginRequest;
+import ink.bluballz.chat.auth.v1.RegisterRequest;
+import io.grpc.*;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Sheds Login/Register calls over the per-peer or per-email budget before any DB or bcrypt work.
+public class LoginThrottle implements ServerInterceptor, AutoCloseable {
+  private final TokenBuckets byPeer;
+  private final TokenBuckets byEmail;
+  private final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+    var t = new Thread(r, "throttle-sweeper");
+    t.setDaemon(true);
+    return t;
+  });
+
+  // A rate of 0 turns that dimension off.
+  public LoginThrottle(double peerPerSecond, int peerBurst, double emailPerSecond, int emailBurst) {
+    this.byPeer = peerPerSecond > 0 ? new TokenBuckets(peerPerSecond, peerBurst) : null;
+    this.byEmail = emailPerSecond > 0 ? new TokenBuckets(emailPerSecond, emailBurst) : null;
+  }
+
+  public LoginThrottle start(long sweepSeconds) {
+    sweeper.scheduleWithFixedDelay(this::sweep, sweepSeconds, sweepSeconds, TimeUnit.SECONDS);
+    return this;
+  }
+
+  void sweep() {
+    if (byPeer != null) byPeer.sweep();
+    if (byEmail != null) byEmail.sweep();
+  }
+
+  @Override
+  public <Q, R> ServerCall.Listener<Q> interceptCall(ServerCall<Q, R> call, Metadata headers, ServerCallHandler<Q, R> next) {
+    var method = call.getMethodDescriptor().getFullMethodName();
+    if (!method.equals(AuthServiceGrpc.getLoginMethod().getFullMethodName())
+        && !method.equals(AuthServiceGrpc.getRegisterMethod().getFullMethodName())) {
+      return next.startCall(call, headers);
+    }
+    var peer = peer(call);
+    if (byPeer != null && peer != null && !byPeer.tryTake(peer)) {
+      call.close(Status.RESOURCE_EXHAUSTED.withDescription("Too many attempts from this client"), new Metadata());
+      return new ServerCall.Listener<>() {};
+    }
+    if (byEmail == null) return next.startCall(call, headers);
+    return new ForwardingServerCallListener.SimpleForwardingServerCallListener<>(next.startCall(call, headers)) {
+      private boolean shed;
+
+      @Override
+      public void onMessage(Q message) {
+        var email = email(message);
+        if (email != null && !byEmail.tryTake(email)) {
+          shed = true;
+          call.close(Status.RESOURCE_EXHAUSTED.withDescription("Too many attempts for this account"), new Metadata());
+          return;
+        }
+        super.onMessage(message);
+      }
+
+      @Override
+      public void onHalfClose() {
+        if (!shed) super.onHalfClose();
+      }
+    };
+  }
+
+  private static String peer(ServerCall<?, ?> call) {
+    // Only IP peers are limited; in-process and Unix socket callers are local.
+    return call.getAttributes().get(Grpc.TRANSPORT_ATTR_REMOTE_ADDR) instanceof InetSocketAddress addr
+        ? addr.getAddress().getHostAddress()
+        : null;
+  }
+
+  private static String email(Object message) {
+    var raw = message instanceof LoginRequest l ? l.getEmail()
+        : message instanceof RegisterRequest r ? r.getEmail()
+        : null;
+    return raw == null ? null : raw.trim().toLowerCase();
+  }
+
+  public int peerBuckets() { return byPeer == null ? 0 : byPeer.size(); }
+  public int emailBuckets() { return byEmail == null ? 0 : byEmail.size(); }
+  public long peerRejected() { return byPeer == null ? 0 : byPeer.rejected(); }
+  public long emailRejected() { return byEmail == null ? 0 : byEmail.rejected(); }
+
+  @Override
+  public void close() { sweeper.shutdownNow(); }
+}
@@ -1,36 +1,281 @@
 package ink.bluballz.chat.auth.server;
 
+import com.sun.management.HotSpotDiagnosticMXBean;
+import ink.bluballz.chat.auth.v1.AuthServiceGrpc;
 import io.grpc.Server;
+import io.grpc.health.v1.HealthCheckResponse.ServingStatus;
 import io.grpc.netty.shaded.io.grpc.netty.NettyServerBuilder;
+import io.grpc.protobuf.services.HealthStatusManager;
 
-import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 public class Main {
-  public static void main(String[] args) throws IOException, InterruptedException {
-    var port = Integer.parseInt(env("PORT", "50051"));
+  public static void main(String[] args) throws Exception {
+    // --cds-training: the normal startup on an in-memory store and ephemeral port, followed by one call
+    // of every RPC, then exit; run under -XX:ArchiveClassesAtExit to record an AppCDS archive.
+    var training = List.of(args).contains("--cds-training");
+    var port = training ? 0 : Integer.parseInt(env("PORT", "50051"));
 
-    var db = new Db(
-        env("DB_URL", "jdbc:mysql://localhost:3306/chatapp?useSSL=false&allowPublicKeyRetrieval=true&serverTimezone=UTC"),
-        env("DB_USER", "chatuser"),
-        env("DB_PASSWORD", "chatpass")
+    var dbUser = env("DB_USER", "chatuser");
+    var dbPassword = env("DB_PASSWORD", "chatpass");
+    var dbPoolSize = Integer.parseInt(env("DB_POOL_SIZE", "10"));
+    var replicaUrl = env("DB_REPLICA_URL", "");
+    var db = training ? null : new Db(
+        env("DB_URL", "jdbc:mysql://localhost:3306/chatapp?useSSL=false&allowPublicKeyRetrieval=true&serverTimezone=UTC&rewriteBatchedStatements=true"),
+        dbUser,
+        dbPassword,
+        dbPoolSize,
+        replicaUrl.isBlank() ? null : new Db.Replica(replicaUrl,
+            env("DB_REPLICA_USER", dbUser),
+            env("DB_REPLICA_PASSWORD", dbPassword),
+            Integer.parseInt(env("DB_REPLICA_POOL_SIZE", Integer.toString(dbPoolSize))))
     );
 
     var jwtSecret = env("JWT_SECRET", "dev_dev_dev_dev_dev_dev_dev_32+dev_dev_dev_dev");
     var accessMinutes = Integer.parseInt(env("ACCESS_MINUTES", "15"));
     var refreshDays = Integer.parseInt(env("REFRESH_DAYS", "7"));
 
-    var jwt = new JwtUtil(jwtSecret, accessMinutes, refreshDays);
-    var userDao = new UserDao(db);
-    var svc = new AuthServiceImpl(userDao, jwt);
+    var tokenCacheSize = Integer.parseInt(env("TOKEN_CACHE_SIZE", "50000"));
 
-    Server server = NettyServerBuilder.forPort(port)
-        .addService(svc)
-        .build();
+    var signingKeys = "ES256".equalsIgnoreCase(env("JWT_ALG", "HS256"))
+        ? SigningKeys.ec(System.getenv("JWT_EC_PRIVATE_KEY"), System.getenv("JWT_EC_PUBLIC_KEY"), System.getenv("JWT_KID"), System.getenv("JWT_EC_PREVIOUS_KEYS"))
+        : SigningKeys.hmac(jwtSecret);
 
-    System.out.println("AuthService listening on " + port);
-    server.start();
-    server.awaitTermination();
+    var revocations = new RevocationList(Integer.parseInt(env("REVOCATION_CAPACITY", "100000"))).start(30);
+    var jwt = new JwtUtil(signingKeys, accessMinutes, refreshDays, tokenCacheSize, revocations);
+    var dao = training ? null : new UserDao(db, Long.parseLong(env("DB_REPLICA_MAX_LAG_MILLIS", "2000")));
+    var userCache = new CachingUserStore(training ? new InMemoryUserStore() : dao,
+        Integer.parseInt(env("USER_CACHE_SIZE", "100000")),
+        Long.parseLong(env("USER_CACHE_TTL_SECONDS", "60")));
+    UserStore users = userCache;
+    new SessionPurger(users, Integer.parseInt(env("SESSION_PURGE_BATCH", "1000")))
+        .start(Long.parseLong(env("SESSION_PURGE_SECONDS", "300")));
+
+    var hashThreads = Integer.parseInt(env("HASH_THREADS", Integer.toString(Runtime.getRuntime().availableProcessors())));
+    var hashQueue = Integer.parseInt(env("HASH_QUEUE", Integer.toString(hashThreads * 32)));
+    var bcryptCost = training ? 4 : System.getenv("BCRYPT_COST") != null
+        ? Integer.parseInt(System.getenv("BCRYPT_COST"))
+        : calibrateBcrypt(Long.parseLong(env("BCRYPT_TARGET_MILLIS", "250")));
+    var hasher = new HashEngine(hashThreads, hashQueue, bcryptCost);
+    var validateSeq = new AtomicInteger();
+    var validateExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+        r -> { var t = new Thread(r, "validate-" + validateSeq.incrementAndGet()); t.setDaemon(true); return t; });
+    var sessionWriter = new SessionWriteBatcher(users,
+        Long.parseLong(env("SESSION_BATCH_WINDOW_MICROS", "2000")),
+        Integer.parseInt(env("SESSION_BATCH_MAX", "128")));
+    var search = new UserSearchIndex(users);
+    var feed = new UserFeed(Integer.parseInt(env("USER_FEED_CAPACITY", "65536")));
+    // ImportUsers stays disabled unless IMPORT_TOKEN is set
+    var importer = new UserImporter(users, hasher, search, env("IMPORT_TOKEN", ""),
+        Integer.parseInt(env("IMPORT_BCRYPT_COST", Integer.toString(bcryptCost))));
+    var virtual = "virtual".equalsIgnoreCase(env("EXECUTOR", "platform"));
+    var executor = virtual ? Executors.newVirtualThreadPerTaskExecutor() : null;
+    var callSeq = new AtomicInteger();
+    var callExecutor = executor != null ? executor : Executors.newCachedThreadPool(
+        r -> { var t = new Thread(r, "call-" + callSeq.incrementAndGet()); t.setDaemon(true); return t; });
+    // ListUsers and WatchUsers stay disabled unless SERVICE_TOKEN is set
+    var svc = new AuthServiceImpl(users, jwt, hasher, sessionWriter, validateExecutor, callExecutor, search, feed, importer,
+        env("SERVICE_TOKEN", ""));
+
+    var statsSeconds = Integer.parseInt(env("STATS_SECONDS", "0"));
+    if (statsSeconds > 0) {
+      var stats = Executors.newSingleThreadScheduledExecutor(r -> { var t = new Thread(r, "stats"); t.setDaemon(true); return t; });
+      stats.scheduleAtFixedRate(() -> {
+        System.out.println("HashEngine " + hasher.hashStage() + " " + hasher.verifyStage() + " " + hasher.rehashStage() + " " + hasher.importStage());
+        System.out.println("TokenCache " + jwt.cacheStats());
+        System.out.println("Revocations " + revocations.stats());
+        System.out.println("UserCache " + userCache.stats());
+        System.out.println("UserSearchIndex " + search.stats());
+        System.out.println("UserFeed " + feed.stats());
+        System.out.println("UserImporter " + importer.stats());
+        if (dao != null) System.out.println("UserDao " + dao.readStats());
+        System.out.println("SessionWriteBatcher " + sessionWriter.stats());
+      }, statsSeconds, statsSeconds, TimeUnit.SECONDS);
+    }
+
+    var throttle = new LoginThrottle(
+        Double.parseDouble(env("THROTTLE_PEER_PER_SECOND", "20")),
+        Integer.parseInt(env("THROTTLE_PEER_BURST", "40")),
+        Double.parseDouble(env("THROTTLE_EMAIL_PER_MINUTE", "10")) / 60,
+        Integer.parseInt(env("THROTTLE_EMAIL_BURST", "5"))).start(60);
+
+    var metrics = new Metrics();
+    registerMetrics(metrics, db, dao, jwt, userCache, search, feed, importer, hasher, sessionWriter, throttle);
+    var metricsPort = training ? 0 : Integer.parseInt(env("METRICS_PORT", "9464"));
+    if (metricsPort > 0) new MetricsServer(metricsPort, metrics).start();
+
+    var transport = new NettyTransport(new NettyTransport.Config(
+        env("TRANSPORT", "auto"),
+        Integer.parseInt(env("BOSS_THREADS", "1")),
+        Integer.parseInt(env("WORKER_THREADS", "0")),
+        Integer.parseInt(env("FLOW_CONTROL_WINDOW", "0")),
+        Integer.parseInt(env("MAX_CALLS_PER_CONNECTION", "0")),
+        Long.parseLong(env("KEEPALIVE_SECONDS", "0")),
+        Long.parseLong(env("KEEPALIVE_TIMEOUT_SECONDS", "0")),
+        Long.parseLong(env("PERMIT_KEEPALIVE_SECONDS", "0"))));
+    var maxCalls = Integer.parseInt(env("MAX_CONCURRENT_CALLS", virtual ? "1024" : "0"));
+    var limiter = maxCalls > 0 ? new CallLimiter(maxCalls) : null;
+    var metricsInterceptor = new MetricsInterceptor(metrics);
+
+    // Reports NOT_SERVING until the warm-up below has run, so probes and balancers hold traffic back.
+    var health = new HealthStatusManager();
+    health.setStatus("", ServingStatus.NOT_SERVING);
+    health.setStatus(AuthServiceGrpc.SERVICE_NAME, ServingStatus.NOT_SERVING);
+
+    // Every listener serves the same services through the same interceptors, limiter and executor.
+    Function<NettyServerBuilder, Server> build = b -> {
+      if (executor != null) b.executor(executor);
+      if (limiter != null) b.intercept(limiter);
+      // runs before the limiter so shed logins do not take a call slot
+      b.intercept(throttle);
+      // added last so it runs first and also sees calls the limiter turns away
+      b.intercept(metricsInterceptor);
+      return b.addService(svc).addService(health.getHealthService()).build();
+    };
+
+    // Wired before the listeners start so a Register during warm-up still becomes an event.
+    search.listen(feed::registered);
+    var servers = new ArrayList<Server>();
+    servers.add(build.apply(transport.tcp(port)).start());
+    System.out.println("AuthService listening on " + servers.get(0).getPort() + " (" + transport + (virtual ? ", virtual threads" : "") + ")");
+    var udsPath = env("UDS_PATH", "");
+    if (!udsPath.isBlank()) {
+      servers.add(build.apply(transport.unix(udsPath)).start());
+      System.out.println("AuthService listening on unix:" + udsPath);
+    }
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      health.enterTerminalState();
+      try {
+        feed.close();
+        servers.forEach(Server::shutdown);
+        // calls still running may be waiting on a session write, so the writer is closed only after them
+        for (var s : servers) s.awaitTermination(10, TimeUnit.SECONDS);
+        sessionWriter.close();
+      } catch (InterruptedException ignored) { }
+    }));
+
+    var warmUp = new WarmUp(db, users, jwt, hasher, Long.parseLong(env("WARMUP_MILLIS", "10000")));
+    while (true) {
+      try {
+        // revocations recorded by any instance (this one before a restart included) hold from the start
+        System.out.println("Revocations: " + revocations.catchUp(users) + " loaded");
+        // SearchUsers answers from the index, so it is loaded before the service reports SERVING
+        System.out.println("User index: " + search.load() + " users loaded");
+        warmUp.run();
+        break;
+      } catch (Exception e) {
+        System.err.println("Warm-up failed, retrying in 5s: " + e.getMessage());
+        Thread.sleep(5000);
+      }
+    }
+    search.start(Long.parseLong(env("USER_INDEX_CATCH_UP_SECONDS", "10")));
+    revocations.follow(users, Long.parseLong(env("REVOCATION_CATCH_UP_SECONDS", "5")));
+    health.setStatus("", ServingStatus.SERVING);
+    health.setStatus(AuthServiceGrpc.SERVICE_NAME, ServingStatus.SERVING);
+    var cds = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class).getVMOption("SharedArchiveFile").getValue();
+    System.out.println("SERVING " + ManagementFactory.getRuntimeMXBean().getUptime() + " ms after JVM start"
+        + (cds.isEmpty() ? "" : " (CDS archive " + cds + ")"));
+    if (training) {
+      CdsTraining.run(servers.get(0).getPort());
+      System.exit(0);
+    }
+    for (var s : servers) s.awaitTermination();
+  }
+
+  private static void registerMetrics(Metrics m, Db db, UserDao dao, JwtUtil jwt, CachingUserStore userCache, UserSearchIndex search,
+                                      UserFeed feed, UserImporter importer, HashEngine hasher, SessionWriteBatcher sessionWriter, LoginThrottle throttle) {
+    if (db != null) {
+      var active = m.gauge("hikari_connections_active", "Connections in use", "pool");
+      var idle = m.gauge("hikari_connections_idle", "Idle connections", "pool");
+      var pending = m.gauge("hikari_connections_pending", "Threads waiting for a connection", "pool");
+      var acquire = m.histogram("hikari_connection_acquire_seconds", "Time to borrow a connection", "pool");
+      var pool = db.pool();
+      active.put(() -> pool.getActiveConnections(), "primary");
+      idle.put(() -> pool.getIdleConnections(), "primary");
+      pending.put(() -> pool.getThreadsAwaitingConnection(), "primary");
+      acquire.put(db.acquireTime(), "primary");
+      var replica = db.replicaPool();
+      if (replica != null) {
+        active.put(() -> replica.getActiveConnections(), "replica");
+        idle.put(() -> replica.getIdleConnections(), "replica");
+        pending.put(() -> replica.getThreadsAwaitingConnection(), "replica");
+        acquire.put(db.replicaAcquireTime(), "replica");
+        var reads = m.counterFn("db_lookups_total", "User/session lookups by where they were answered", "route");
+        reads.put(() -> dao.readStats().replica(), "replica");
+        reads.put(() -> dao.readStats().primary(), "primary_fallback");
+        reads.put(() -> dao.readStats().replicaErrors(), "replica_error");
+      }
+    }
+
+    var queued = m.gauge("bcrypt_queued", "bcrypt jobs waiting for a worker", "stage");
+    var rejected = m.counterFn("bcrypt_rejected_total", "bcrypt jobs refused because the queue was full", "stage");
+    var wait = m.histogram("bcrypt_queue_wait_seconds", "Time bcrypt jobs spent queued", "stage");
+    var run = m.histogram("bcrypt_seconds", "bcrypt hash/verify time", "stage");
+    m.gauge("bcrypt_cost", "bcrypt work factor used for new hashes", hasher::cost);
+    for (var st : List.of(hasher.hashStage(), hasher.verifyStage(), hasher.rehashStage(), hasher.importStage())) {
+      queued.put(st::queued, st.name());
+      rejected.put(st::rejected, st.name());
+      wait.put(st.waitTime(), st.name());
+      run.put(st.runTime(), st.name());
+    }
+
+    m.histogram("jwt_sign_seconds", "Access token signing time").put(jwt.signTime());
+    m.histogram("jwt_verify_seconds", "Access token verification time (cache misses)").put(jwt.verifyTime());
+    m.gauge("token_cache_size", "Verified tokens cached", () -> jwt.cacheStats().size());
+    var cache = m.counterFn("token_cache_total", "Token cache lookups and removals", "result");
+    cache.put(() -> jwt.cacheStats().hits(), "hit");
+    cache.put(() -> jwt.cacheStats().misses(), "miss");
+    cache.put(() -> jwt.cacheStats().evictions(), "eviction");
+    cache.put(() -> jwt.cacheStats().expirations(), "expiration");
+
+    var revocations = jwt.revocations();
+    var revoked = m.gauge("revocations", "Revoked entries kept until their tokens expire", "kind");
+    revoked.put(() -> revocations.stats().tokens(), "token");
+    revoked.put(() -> revocations.stats().sessions(), "session");
+    var checks = m.counterFn("revocation_checks_total", "Validations that had to look past the Bloom filter", "result");
+    checks.put(() -> revocations.stats().filterHits(), "filter_hit");
+    checks.put(() -> revocations.stats().revokedHits(), "revoked");
+
+    m.gauge("user_cache_size", "Users cached", () -> userCache.stats().size());
+    var users = m.counterFn("user_cache_total", "User cache lookups and evictions", "result");
+    users.put(() -> userCache.stats().hits(), "hit");
+    users.put(() -> userCache.stats().misses(), "miss");
+    users.put(() -> userCache.stats().evictions(), "eviction");
+
+    m.gauge("user_index_users", "Users in the search index", () -> search.stats().users());
+    m.histogram("user_search_seconds", "SearchUsers index lookup time").put(search.searchTime());
+    m.gauge("user_feed_seq", "Sequence number of the latest user event", () -> feed.stats().head());
+    m.gauge("user_feed_watchers", "Open WatchUsers streams", () -> feed.stats().watchers());
+    m.counterFn("user_feed_resyncs_total", "RESYNC events sent to watchers").put(() -> feed.stats().resyncs());
+    var imports = m.counterFn("import_records_total", "ImportUsers records by outcome", "result");
+    imports.put(() -> importer.stats().imported(), "imported");
+    imports.put(() -> importer.stats().alreadyExists(), "already_exists");
+    imports.put(() -> importer.stats().invalid(), "invalid");
+    imports.put(() -> importer.stats().failed(), "failed");
+
+    var buckets = m.gauge("throttle_buckets", "Live login rate-limit buckets", "key");
+    buckets.put(throttle::peerBuckets, "peer");
+    buckets.put(throttle::emailBuckets, "email");
+    var shed = m.counterFn("throttle_rejected_total", "Login/Register calls shed for being over budget", "key");
+    shed.put(throttle::peerRejected, "peer");
+    shed.put(throttle::emailRejected, "email");
+
+    m.counterFn("session_writes_total", "Session rows written").put(() -> sessionWriter.stats().writes());
+    m.counterFn("session_batches_total", "Session write batches committed").put(() -> sessionWriter.stats().batches());
+  }
+
+  private static int calibrateBcrypt(long targetMillis) {
+    // never below the default: a slow host must not weaken new hashes
+    var c = PasswordUtil.calibrate(targetMillis, PasswordUtil.DEFAULT_COST, 16);
+    System.out.printf("bcrypt cost %d (~%.0f ms per hash, target %d ms)%n", c.cost(), c.estimatedMillis(), targetMillis);
+    return c.cost();
   }
 
   private static String env(String k, String def) { return Optional.ofNullable(System.getenv(k)).orElse(def); }
@@ -0,0 +1,112 @@
+package ink.bluballz.chat.auth.server;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.Supplier;
+
+// Minimal metric registry rendered in the Prometheus text format; gauges are read at scrape time.
+public class Metrics {
+  private final Map<String, Family<?>> families = Collections.synchronizedMap(new LinkedHashMap<>());
+
+  public final class Family<T> {
+    private final String name;
+    private final String help;
+    private final String type;
+    private final String[] labelNames;
+    private final Supplier<T> factory;
+    private final Map<List<String>, T> children = new ConcurrentHashMap<>();
+
+    private Family(String name, String help, String type, String[] labelNames, Supplier<T> factory) {
+      this.name = name;
+      this.help = help;
+      this.type = type;
+      this.labelNames = labelNames;
+      this.factory = factory;
+    }
+
+    public T labels(String... values) {
+      if (values.length != labelNames.length) throw new IllegalArgumentException(name + " expects " + labelNames.length + " labels");
+      return children.computeIfAbsent(List.of(values), k -> factory.get());
+    }
+
+    public Family<T> put(T child, String... values) {
+      if (values.length != labelNames.length) throw new IllegalArgumentException(name + " expects " + labelNames.length + " labels");
+      children.put(List.of(values), child);
+      return this;
+    }
+  }
+
+  public Family<LongAdder> counter(String name, String help, String... labelNames) {
+    return family(name, help, "counter", labelNames, LongAdder::new);
+  }
+
+  public Family<Histogram> histogram(String name, String help, String... labelNames) {
+    return family(name, help, "histogram", labelNames, Histogram::new);
+  }
+
+  public Family<DoubleSupplier> gauge(String name, String help, String... labelNames) {
+    return family(name, help, "gauge", labelNames, () -> () -> 0);
+  }
+
+  public void gauge(String name, String help, DoubleSupplier value) { gauge(name, help).put(value); }
+
+  // Counters kept elsewhere (LongAdders, stats records) exported through a supplier.
+  public Family<DoubleSupplier> counterFn(String name, String help, String... labelNames) {
+    return family(name, help, "counter", labelNames, () -> () -> 0);
+  }
+
+  @SuppressWarnings("unchecked")
+  private <T> Family<T> family(String name, String help, String type, String[] labelNames, Supplier<T> factory) {
+    return (Family<T>) families.computeIfAbsent(name, n -> new Family<>(n, help, type, labelNames, factory));
+  }
+
+  public String scrape() {
+    var sb = new StringBuilder(4096);
+    List<Family<?>> snapshot;
+    synchronized (families) { snapshot = new ArrayList<>(families.values()); }
+    for (var f : snapshot) {
+      sb.append("# HELP ").append(f.name).append(' ').append(f.help).append('\n');
+      sb.append("# TYPE ").append(f.name).append(' ').append(f.type).append('\n');
+      for (var e : f.children.entrySet()) {
+        var labels = e.getKey();
+        var child = e.getValue();
+        if (child instanceof LongAdder c) {
+          sample(sb, f.name, f.labelNames, labels, null, c.sum());
+        } else if (child instanceof DoubleSupplier g) {
+          sample(sb, f.name, f.labelNames, labels, null, g.getAsDouble());
+        } else if (child instanceof Histogram h) {
+          var bounds = h.bounds();
+          var cum = h.cumulative();
+          for (int i = 0; i < bounds.length; i++) sample(sb, f.name + "_bucket", f.labelNames, labels, Double.toString(bounds[i]), cum[i]);
+          var count = h.count();
+          sample(sb, f.name + "_bucket", f.labelNames, labels, "+Inf", count);
+          sample(sb, f.name + "_sum", f.labelNames, labels, null, h.sumNanos() / 1e9);
+          sample(sb, f.name + "_count", f.labelNames, labels, null, count);
+        }
+      }
+    }
+    return sb.toString();
+  }
+
+  private static void sample(StringBuilder sb, String name, String[] names, List<String> values, String le, double v) {
+    sb.append(name);
+    if (names.length > 0 || le != null) {
+      sb.append('{');
+      for (int i = 0; i < names.length; i++) {
+        if (i > 0) sb.append(',');
+        sb.append(names[i]).append("=\"").append(escape(values.get(i))).append('"');
+      }
+      if (le != null) sb.append(names.length > 0 ? "," : "").append("le=\"").append(le).append('"');
+      sb.append('}');
+    }
+    sb.append(' ');
+    if (v == Math.rint(v) && !Double.isInfinite(v)) sb.append((long) v); else sb.append(v);
+    sb.append('\n');
+  }
+
+  private static String escape(String s) {
+    return s.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+}
@@ -0,0 +1,30 @@
+package ink.bluballz.chat.auth.server;
+
+import io.grpc.*;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// Records per-method latency (call start to close) and the status code each call ends with.
+public class MetricsInterceptor implements ServerInterceptor {
+  private final Metrics.Family<Histogram> latency;
+  private final Metrics.Family<LongAdder> calls;
+
+  public MetricsInterceptor(Metrics metrics) {
+    this.latency = metrics.histogram("grpc_server_handling_seconds", "Time from call start to close", "method");
+    this.calls = metrics.counter("grpc_server_handled_total", "Completed calls by status code", "method", "code");
+  }
+
+  @Override
+  public <Q, R> ServerCall.Listener<Q> interceptCall(ServerCall<Q, R> call, Metadata headers, ServerCallHandler<Q, R> next) {
+    var method = call.getMethodDescriptor().getBareMethodName();
+    var started = System.nanoTime();
+    return next.startCall(new ForwardingServerCall.SimpleForwardingServerCall<>(call) {
+      @Override
+      public void close(Status status, Metadata trailers) {
+        latency.labels(method).observeNanos(System.nanoTime() - started);
+        calls.labels(method, status.getCode().name()).increment();
+        super.close(status, trailers);
+      }
+    }, headers);
+  }
+}
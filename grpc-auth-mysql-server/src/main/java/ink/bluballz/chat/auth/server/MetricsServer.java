@@ -0,0 +1,42 @@
+package ink.bluballz.chat.auth.server;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+
+// Serves Metrics.scrape() on GET /metrics from the JDK's built-in HTTP server.
+public class MetricsServer implements AutoCloseable {
+  private final HttpServer http;
+
+  public MetricsServer(int port, Metrics metrics) throws IOException {
+    this.http = HttpServer.create(new InetSocketAddress(port), 0);
+    http.createContext("/metrics", ex -> {
+      try (ex) {
+        if (!"GET".equals(ex.getRequestMethod())) {
+          ex.sendResponseHeaders(405, -1);
+          return;
+        }
+        var body = metrics.scrape().getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        ex.sendResponseHeaders(200, body.length);
+        ex.getResponseBody().write(body);
+      }
+    });
+    http.setExecutor(Executors.newSingleThreadExecutor(r -> {
+      var t = new Thread(r, "metrics-http");
+      t.setDaemon(true);
+      return t;
+    }));
+  }
+
+  public MetricsServer start() {
+    http.start();
+    return this;
+  }
+
+  @Override
+  public void close() { http.stop(0); }
+}
@@ -0,0 +1,84 @@
+package ink.bluballz.chat.auth.server;
+
+import io.grpc.netty.shaded.io.grpc.netty.NettyServerBuilder;
+import io.grpc.netty.shaded.io.netty.channel.EventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.epoll.Epoll;
+import io.grpc.netty.shaded.io.netty.channel.epoll.EpollEventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.epoll.EpollServerDomainSocketChannel;
+import io.grpc.netty.shaded.io.netty.channel.epoll.EpollServerSocketChannel;
+import io.grpc.netty.shaded.io.netty.channel.nio.NioEventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.grpc.netty.shaded.io.netty.channel.unix.DomainSocketAddress;
+import io.grpc.netty.shaded.io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// Event loops and HTTP/2 settings shared by every gRPC listener; zero means the Netty/gRPC default.
+public class NettyTransport implements AutoCloseable {
+  public record Config(String mode, int bossThreads, int workerThreads, int flowControlWindow,
+                       int maxCallsPerConnection, long keepAliveSeconds, long keepAliveTimeoutSeconds,
+                       long permitKeepAliveSeconds) {}
+
+  private final Config config;
+  private final boolean epoll;
+  private final EventLoopGroup boss;
+  private final EventLoopGroup workers;
+
+  public NettyTransport(Config config) {
+    this.config = config;
+    this.epoll = switch (config.mode().toLowerCase()) {
+      case "nio" -> false;
+      case "epoll" -> {
+        Epoll.ensureAvailability();
+        yield true;
+      }
+      default -> Epoll.isAvailable();
+    };
+    var bossThreads = Math.max(1, config.bossThreads());
+    var bossFactory = new DefaultThreadFactory("grpc-boss", true);
+    var workerFactory = new DefaultThreadFactory("grpc-worker", true);
+    this.boss = epoll ? new EpollEventLoopGroup(bossThreads, bossFactory) : new NioEventLoopGroup(bossThreads, bossFactory);
+    this.workers = epoll ? new EpollEventLoopGroup(config.workerThreads(), workerFactory) : new NioEventLoopGroup(config.workerThreads(), workerFactory);
+  }
+
+  public NettyServerBuilder tcp(int port) {
+    return apply(NettyServerBuilder.forAddress(new InetSocketAddress(port))
+        .channelType(epoll ? EpollServerSocketChannel.class : NioServerSocketChannel.class));
+  }
+
+  // A stale socket file from a previous run would make the bind fail, so it is removed first.
+  public NettyServerBuilder unix(String path) throws IOException {
+    if (!epoll) throw new IllegalStateException("Unix domain sockets need the epoll transport");
+    Files.deleteIfExists(Path.of(path));
+    return apply(NettyServerBuilder.forAddress(new DomainSocketAddress(path))
+        .channelType(EpollServerDomainSocketChannel.class));
+  }
+
+  private NettyServerBuilder apply(NettyServerBuilder b) {
+    b.bossEventLoopGroup(boss).workerEventLoopGroup(workers);
+    if (config.flowControlWindow() > 0) b.flowControlWindow(config.flowControlWindow());
+    if (config.maxCallsPerConnection() > 0) b.maxConcurrentCallsPerConnection(config.maxCallsPerConnection());
+    if (config.keepAliveSeconds() > 0) b.keepAliveTime(config.keepAliveSeconds(), TimeUnit.SECONDS);
+    if (config.keepAliveTimeoutSeconds() > 0) b.keepAliveTimeout(config.keepAliveTimeoutSeconds(), TimeUnit.SECONDS);
+    if (config.permitKeepAliveSeconds() > 0) b.permitKeepAliveTime(config.permitKeepAliveSeconds(), TimeUnit.SECONDS);
+    return b;
+  }
+
+  public boolean epoll() { return epoll; }
+
+  @Override
+  public String toString() {
+    return (epoll ? "epoll" : "nio") + ", " + Math.max(1, config.bossThreads()) + " boss / "
+        + (config.workerThreads() > 0 ? config.workerThreads() : "default") + " worker threads";
+  }
+
+  @Override
+  public void close() {
+    boss.shutdownGracefully();
+    workers.shutdownGracefully();
+  }
+}
@@ -3,6 +3,50 @@ package ink.bluballz.chat.auth.server;
 import org.mindrot.jbcrypt.BCrypt;
 
 public class PasswordUtil {
-  public static String hash(String plain) { return BCrypt.hashpw(plain, BCrypt.gensalt(12)); }
+  public static final int DEFAULT_COST = 12;
+
+  public record Calibration(int cost, double estimatedMillis) {}
+
+  public static String hash(String plain) { return hash(plain, DEFAULT_COST); }
+  public static String hash(String plain, int cost) { return BCrypt.hashpw(plain, BCrypt.gensalt(cost)); }
   public static boolean verify(String plain, String hash) { return BCrypt.checkpw(plain, hash); }
-}
\ No newline at end of file
+
+  // Work factor of a "$2a$12$..." hash, or -1 if it is not one.
+  public static int cost(String hash) {
+    if (hash == null || hash.length() < 7 || hash.charAt(0) != '$' || hash.charAt(6) != '$') return -1;
+    try { return Integer.parseInt(hash, 4, 6, 10); } catch (NumberFormatException e) { return -1; }
+  }
+
+  // A bcrypt hash from elsewhere in the "$2a$" form jBCrypt verifies, or null if it is not one. $2b$ and
+  // $2y$ only differ from $2a$ in bugs of other implementations, so they are relabelled.
+  public static String importable(String hash) {
+    if (hash == null || hash.length() != 60 || !hash.startsWith("$2") || "aby".indexOf(hash.charAt(2)) < 0) return null;
+    var c = cost(hash);
+    if (c < 4 || c > 31) return null;
+    for (int i = 7; i < 60; i++) {
+      var ch = hash.charAt(i);
+      if (!(ch == '.' || ch == '/' || ch >= '0' && ch <= '9' || ch >= 'A' && ch <= 'Z' || ch >= 'a' && ch <= 'z')) return null;
+    }
+    return "$2a" + hash.substring(3);
+  }
+
+  // Highest cost in [minCost, maxCost] whose hash time stays within targetMillis on this machine.
+  // Times the cheapest cost (best of three, after a warm-up) and doubles per step from there,
+  // which is how bcrypt scales.
+  public static Calibration calibrate(long targetMillis, int minCost, int maxCost) {
+    hash("calibrate", minCost);
+    long best = Long.MAX_VALUE;
+    for (int i = 0; i < 3; i++) {
+      var started = System.nanoTime();
+      hash("calibrate", minCost);
+      best = Math.min(best, System.nanoTime() - started);
+    }
+    var cost = minCost;
+    var millis = best / 1e6;
+    while (cost < maxCost && millis * 2 <= targetMillis) {
+      cost++;
+      millis *= 2;
+    }
+    return new Calibration(cost, millis);
+  }
+}
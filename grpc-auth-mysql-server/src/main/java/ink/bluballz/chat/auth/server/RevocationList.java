@@ -0,0 +1,173 @@
+package ink.bluballz.chat.auth.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Revoked token ids and sessions until they expire, behind a Bloom filter so the common miss takes no lock.
+public class RevocationList implements AutoCloseable {
+  private static final int HASHES = 7;
+  private static final int PAGE = 1000;
+  // ids below the scan cursor that are re-read each round, for inserts that committed out of id order
+  private static final long OVERLAP = 256;
+
+  private final int bitsPerFilter;
+  private final ConcurrentHashMap<String, Long> tokens = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<Long, Long> sessions = new ConcurrentHashMap<>();
+  private final TreeMap<Long, List<Object>> byExpiry = new TreeMap<>();
+  private volatile AtomicLongArray bloom;
+  private volatile long scannedTo;
+  private final LongAdder filterHits = new LongAdder();
+  private final LongAdder revokedHits = new LongAdder();
+  private final ScheduledExecutorService pruner = Executors.newSingleThreadScheduledExecutor(r -> {
+    var t = new Thread(r, "revocation-pruner");
+    t.setDaemon(true);
+    return t;
+  });
+
+  public record Stats(long tokens, long sessions, long filterHits, long revokedHits) {}
+
+  // Sized for ~1% false positives at `expectedEntries` live revocations (10 bits each, 7 hashes).
+  public RevocationList(int expectedEntries) {
+    this.bitsPerFilter = Integer.highestOneBit(Math.max(1024, expectedEntries * 10 - 1)) << 1;
+    this.bloom = new AtomicLongArray(bitsPerFilter / 64);
+  }
+
+  public RevocationList start(long pruneSeconds) {
+    pruner.scheduleWithFixedDelay(this::prune, pruneSeconds, pruneSeconds, TimeUnit.SECONDS);
+    return this;
+  }
+
+  // Also picks up revocations recorded by other instances every catchUpSeconds.
+  public RevocationList follow(UserStore store, long catchUpSeconds) {
+    pruner.scheduleWithFixedDelay(() -> {
+      try {
+        catchUp(store);
+      } catch (Exception e) {
+        System.err.println("Revocation catch-up failed: " + e.getMessage());
+      }
+    }, catchUpSeconds, catchUpSeconds, TimeUnit.SECONDS);
+    return this;
+  }
+
+  // Adds the unexpired revocations recorded in the store past the scan cursor; returns how many were read.
+  public int catchUp(UserStore store) throws Exception {
+    var after = Math.max(0, scannedTo - OVERLAP);
+    int read = 0;
+    while (true) {
+      var page = store.listRevocations(after, PAGE);
+      for (var r : page) {
+        if (r.jti() != null) revokeToken(r.jti(), r.expiresAt());
+        else revokeSession(r.sessionId(), r.expiresAt());
+      }
+      read += page.size();
+      if (page.isEmpty()) break;
+      after = page.get(page.size() - 1).id();
+      scannedTo = Math.max(scannedTo, after);
+      if (page.size() < PAGE) break;
+    }
+    return read;
+  }
+
+  public synchronized void revokeToken(String jti, long expiresAt) {
+    if (jti == null || tokens.putIfAbsent(jti, expiresAt) != null) return;
+    byExpiry.computeIfAbsent(expiresAt, k -> new ArrayList<>()).add(jti);
+    add(bloom, hash(jti));
+  }
+
+  // `until` is when the newest access token the session could have issued expires.
+  public synchronized void revokeSession(long sessionId, long until) {
+    if (sessionId == 0 || sessions.putIfAbsent(sessionId, until) != null) return;
+    byExpiry.computeIfAbsent(until, k -> new ArrayList<>()).add(sessionId);
+    add(bloom, hash(sessionId));
+  }
+
+  public boolean isRevoked(JwtUtil.AccessClaims claims) {
+    var b = bloom;
+    var jti = claims.jti();
+    if (jti != null && mightContain(b, hash(jti))) {
+      filterHits.increment();
+      if (tokens.containsKey(jti)) {
+        revokedHits.increment();
+        return true;
+      }
+    }
+    var sid = claims.sessionId();
+    if (sid != 0 && mightContain(b, hash(sid))) {
+      filterHits.increment();
+      if (sessions.containsKey(sid)) {
+        revokedHits.increment();
+        return true;
+      }
+    }
+    return false;
+  }
+
+  synchronized void prune() {
+    var now = System.currentTimeMillis() / 1000;
+    var removed = false;
+    for (var e = byExpiry.firstEntry(); e != null && e.getKey() <= now; e = byExpiry.firstEntry()) {
+      byExpiry.pollFirstEntry();
+      for (var key : e.getValue()) {
+        if (key instanceof String jti) tokens.remove(jti);
+        else sessions.remove((Long) key);
+      }
+      removed = true;
+    }
+    if (!removed) return;
+    var next = new AtomicLongArray(bitsPerFilter / 64);
+    for (var jti : tokens.keySet()) add(next, hash(jti));
+    for (var sid : sessions.keySet()) add(next, hash(sid));
+    bloom = next;
+  }
+
+  private static long hash(String s) {
+    long h = 0xcbf29ce484222325L;
+    for (int i = 0; i < s.length(); i++) h = (h ^ s.charAt(i)) * 0x100000001b3L;
+    return mix(h);
+  }
+
+  private static long hash(long sessionId) { return mix(sessionId ^ 0x5bd1e9955bd1e995L); }
+
+  private static long mix(long h) {
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    return h ^ (h >>> 33);
+  }
+
+  // Double hashing: bit i is h1 + i * h2, masked to the (power of two) filter size.
+  private void add(AtomicLongArray b, long h) {
+    int h1 = (int) h, h2 = (int) (h >>> 32) | 1;
+    for (int i = 0; i < HASHES; i++) {
+      int bit = (h1 + i * h2) & (bitsPerFilter - 1);
+      var mask = 1L << bit;
+      long word;
+      do {
+        word = b.get(bit >>> 6);
+        if ((word & mask) != 0) break;
+      } while (!b.compareAndSet(bit >>> 6, word, word | mask));
+    }
+  }
+
+  private boolean mightContain(AtomicLongArray b, long h) {
+    int h1 = (int) h, h2 = (int) (h >>> 32) | 1;
+    for (int i = 0; i < HASHES; i++) {
+      int bit = (h1 + i * h2) & (bitsPerFilter - 1);
+      if ((b.get(bit >>> 6) & (1L << bit)) == 0) return false;
+    }
+    return true;
+  }
+
+  public Stats stats() { return new Stats(tokens.size(), sessions.size(), filterHits.sum(), revokedHits.sum()); }
+
+  @Override
+  public void close() { pruner.shutdownNow(); }
+}
@@ -0,0 +1,35 @@
+package ink.bluballz.chat.auth.server;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+
+// Reusable per-call scratch state, pooled rather than per-thread: with EXECUTOR=virtual every call runs on a new thread.
+final class ScratchPool<T> {
+  private final AtomicReferenceArray<T> slots;
+  private final int mask;
+  private final Supplier<T> factory;
+
+  ScratchPool(Supplier<T> factory) {
+    var size = Integer.highestOneBit(Math.max(2, Runtime.getRuntime().availableProcessors() * 2 - 1)) << 1;
+    this.slots = new AtomicReferenceArray<>(size);
+    this.mask = size - 1;
+    this.factory = factory;
+  }
+
+  T acquire() {
+    var start = (int) Thread.currentThread().threadId();
+    for (int i = 0; i <= mask; i++) {
+      var t = slots.getAndSet((start + i) & mask, null);
+      if (t != null) return t;
+    }
+    return factory.get();
+  }
+
+  // A full pool drops the object; that only happens past 2x cores concurrent calls.
+  void release(T t) {
+    var start = (int) Thread.currentThread().threadId();
+    for (int i = 0; i <= mask; i++) {
+      if (slots.compareAndSet((start + i) & mask, null, t)) return;
+    }
+  }
+}
@@ -0,0 +1,49 @@
+package ink.bluballz.chat.auth.server;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Periodically deletes expired sessions and revocations in small batches so no single DELETE holds locks for long.
+public class SessionPurger implements AutoCloseable {
+  private final UserStore users;
+  private final int batchSize;
+  private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+    var t = new Thread(r, "session-purger");
+    t.setDaemon(true);
+    return t;
+  });
+
+  public SessionPurger(UserStore users, int batchSize) {
+    this.users = users;
+    this.batchSize = batchSize;
+  }
+
+  public SessionPurger start(long periodSeconds) {
+    timer.scheduleWithFixedDelay(this::purge, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    return this;
+  }
+
+  void purge() {
+    try {
+      long total = 0;
+      int n;
+      do {
+        n = users.purgeExpiredSessions(batchSize);
+        total += n;
+      } while (n == batchSize);
+      if (total > 0) System.out.println("Purged " + total + " expired sessions");
+      total = 0;
+      do {
+        n = users.purgeExpiredRevocations(batchSize);
+        total += n;
+      } while (n == batchSize);
+      if (total > 0) System.out.println("Purged " + total + " expired revocations");
+    } catch (Exception e) {
+      System.err.println("Session purge failed: " + e.getMessage());
+    }
+  }
+
+  @Override
+  public void close() { timer.shutdownNow(); }
+}
@@ -0,0 +1,115 @@
+package ink.bluballz.chat.auth.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Group commit: concurrent session writes are flushed by one writer thread as a single JDBC batch.
+public class SessionWriteBatcher implements AutoCloseable {
+  private record Pending(UserStore.SessionWrite write, CompletableFuture<Long> done, long enqueuedNanos) {}
+
+  private final UserStore users;
+  private final long windowNanos;
+  private final int maxBatch;
+  private final LinkedBlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+  private final Thread writer;
+  private volatile boolean running = true;
+
+  private final LongAdder writes = new LongAdder();
+  private final LongAdder batches = new LongAdder();
+  private final LongAdder failedBatches = new LongAdder();
+  private final LongAdder flushNanos = new LongAdder();
+  private final LongAdder waitNanos = new LongAdder();
+  private final AtomicLong maxBatchSeen = new AtomicLong();
+
+  public record Stats(long writes, long batches, long failedBatches, double avgBatchSize, long maxBatchSize,
+                      double avgFlushMillis, double avgWaitMillis) {}
+
+  public SessionWriteBatcher(UserStore users, long windowMicros, int maxBatch) {
+    this.users = users;
+    this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+    this.maxBatch = Math.max(1, maxBatch);
+    this.writer = new Thread(this::run, "session-writer");
+    this.writer.setDaemon(true);
+    this.writer.start();
+  }
+
+  public CompletableFuture<Long> submit(UserStore.SessionWrite write) {
+    var p = new Pending(write, new CompletableFuture<>(), System.nanoTime());
+    if (!running) {
+      p.done().completeExceptionally(new IllegalStateException("Session writer closed"));
+      return p.done();
+    }
+    queue.add(p);
+    // close() may have stopped the writer between the check above and the add
+    if (!running && queue.remove(p)) p.done().completeExceptionally(new IllegalStateException("Session writer closed"));
+    return p.done();
+  }
+
+  private void run() {
+    var batch = new ArrayList<Pending>(maxBatch);
+    while (running || !queue.isEmpty()) {
+      try {
+        var first = queue.poll(100, TimeUnit.MILLISECONDS);
+        if (first == null) continue;
+        batch.add(first);
+        var deadline = System.nanoTime() + windowNanos;
+        while (batch.size() < maxBatch) {
+          var left = deadline - System.nanoTime();
+          var next = left > 0 ? queue.poll(left, TimeUnit.NANOSECONDS) : queue.poll();
+          if (next == null) break;
+          batch.add(next);
+        }
+        flush(batch);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      } finally {
+        batch.clear();
+      }
+    }
+    // only left after an interrupt; nothing else will complete these
+    for (Pending p; (p = queue.poll()) != null; ) p.done().completeExceptionally(new IllegalStateException("Session writer closed"));
+  }
+
+  private void flush(List<Pending> batch) {
+    var started = System.nanoTime();
+    for (var p : batch) waitNanos.add(started - p.enqueuedNanos());
+    try {
+      var ids = users.writeSessions(batch.stream().map(Pending::write).toList());
+      for (int i = 0; i < batch.size(); i++) batch.get(i).done().complete(ids[i]);
+    } catch (Exception e) {
+      failedBatches.increment();
+      // One bad row must not fail its neighbours: retry them one by one.
+      for (var p : batch) {
+        try {
+          p.done().complete(users.writeSessions(List.of(p.write()))[0]);
+        } catch (Exception single) {
+          p.done().completeExceptionally(single);
+        }
+      }
+    }
+    flushNanos.add(System.nanoTime() - started);
+    writes.add(batch.size());
+    batches.increment();
+    maxBatchSeen.accumulateAndGet(batch.size(), Math::max);
+  }
+
+  public Stats stats() {
+    var b = Math.max(1, batches.sum());
+    var w = Math.max(1, writes.sum());
+    return new Stats(writes.sum(), batches.sum(), failedBatches.sum(), (double) writes.sum() / b, maxBatchSeen.get(),
+        flushNanos.sum() / 1e6 / b, waitNanos.sum() / 1e6 / w);
+  }
+
+  // Writes already submitted are flushed before the writer exits.
+  @Override
+  public void close() throws InterruptedException {
+    running = false;
+    writer.join(TimeUnit.SECONDS.toMillis(5));
+  }
+}
@@ -0,0 +1,109 @@
+package ink.bluballz.chat.auth.server;
+
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.security.Keys;
+import io.jsonwebtoken.security.SignatureException;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.Key;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.*;
+
+// Access-token keys: the shared HS256 secret, or an ES256 key pair whose public halves are published as JWKs.
+public class SigningKeys {
+  public record Jwk(String kid, String kty, String alg, String use, String crv, String x, String y) {}
+
+  private final SignatureAlgorithm alg;
+  private final String kid;
+  private final Key signingKey;
+  private final Map<String, Key> verificationKeys;
+  private final List<Jwk> jwks;
+
+  private SigningKeys(SignatureAlgorithm alg, String kid, Key signingKey, Map<String, Key> verificationKeys, List<Jwk> jwks) {
+    this.alg = alg;
+    this.kid = kid;
+    this.signingKey = signingKey;
+    this.verificationKeys = verificationKeys;
+    this.jwks = jwks;
+  }
+
+  public static SigningKeys hmac(String secret) {
+    var key = Keys.hmacShaKeyFor(secret.getBytes(StandardCharsets.UTF_8));
+    return new SigningKeys(SignatureAlgorithm.HS256, null, key, Map.of(), List.of());
+  }
+
+  // Keys are base64 PKCS#8 (private) and X.509 (public) P-256 encodings. Without a private key an
+  // ephemeral pair is generated, which only suits single-instance dev setups. previousKeys is
+  // "kid=base64 X.509 public key,..." and keeps tokens signed by retired keys verifiable.
+  public static SigningKeys ec(String privateKeyB64, String publicKeyB64, String kid, String previousKeys) throws Exception {
+    var kf = KeyFactory.getInstance("EC");
+    ECPrivateKey priv;
+    ECPublicKey pub;
+    if (privateKeyB64 == null || privateKeyB64.isBlank()) {
+      KeyPair pair = Keys.keyPairFor(SignatureAlgorithm.ES256);
+      priv = (ECPrivateKey) pair.getPrivate();
+      pub = (ECPublicKey) pair.getPublic();
+      System.out.println("JWT_EC_PRIVATE_KEY not set, signing with an ephemeral ES256 key");
+    } else {
+      priv = (ECPrivateKey) kf.generatePrivate(new PKCS8EncodedKeySpec(Base64.getDecoder().decode(privateKeyB64.trim())));
+      if (publicKeyB64 == null || publicKeyB64.isBlank()) throw new IllegalArgumentException("JWT_EC_PUBLIC_KEY is required with JWT_EC_PRIVATE_KEY");
+      pub = (ECPublicKey) kf.generatePublic(new X509EncodedKeySpec(Base64.getDecoder().decode(publicKeyB64.trim())));
+    }
+    if (kid == null || kid.isBlank()) kid = thumbprint(pub);
+
+    var verification = new LinkedHashMap<String, Key>();
+    var jwks = new ArrayList<Jwk>();
+    verification.put(kid, pub);
+    jwks.add(jwk(kid, pub));
+    if (previousKeys != null) {
+      for (var entry : previousKeys.split(",")) {
+        if (entry.isBlank()) continue;
+        var kv = entry.trim().split("=", 2);
+        var old = (ECPublicKey) kf.generatePublic(new X509EncodedKeySpec(Base64.getDecoder().decode(kv[1])));
+        verification.put(kv[0], old);
+        jwks.add(jwk(kv[0], old));
+      }
+    }
+    return new SigningKeys(SignatureAlgorithm.ES256, kid, priv, Map.copyOf(verification), List.copyOf(jwks));
+  }
+
+  public SignatureAlgorithm algorithm() { return alg; }
+  public String kid() { return kid; }
+  public Key signingKey() { return signingKey; }
+  public boolean isHmac() { return alg == SignatureAlgorithm.HS256; }
+  public List<Jwk> jwks() { return jwks; }
+
+  public Key verificationKey(String kid) {
+    if (isHmac()) return signingKey;
+    var k = kid == null ? null : verificationKeys.get(kid);
+    if (k == null) throw new SignatureException("Unknown kid " + kid);
+    return k;
+  }
+
+  private static Jwk jwk(String kid, ECPublicKey pub) {
+    return new Jwk(kid, "EC", "ES256", "sig", "P-256", b64url(pub.getW().getAffineX()), b64url(pub.getW().getAffineY()));
+  }
+
+  private static String thumbprint(PublicKey pub) {
+    try {
+      var d = MessageDigest.getInstance("SHA-256").digest(pub.getEncoded());
+      return HexFormat.of().formatHex(d, 0, 8);
+    } catch (Exception e) { throw new RuntimeException(e); }
+  }
+
+  private static String b64url(BigInteger coord) {
+    var raw = coord.toByteArray();
+    var out = new byte[32];
+    var n = Math.min(raw.length, 32);
+    System.arraycopy(raw, raw.length - n, out, 32 - n, n);
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(out);
+  }
+}
@@ -0,0 +1,57 @@
+package ink.bluballz.chat.auth.server;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Keyed token buckets in GCRA form: each AtomicLong holds the time its bucket will be full again.
+public class TokenBuckets {
+  private static final long DEAD = Long.MIN_VALUE;
+
+  private final ConcurrentHashMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+  private final long intervalNanos;
+  private final long burstNanos;
+  private final LongAdder rejected = new LongAdder();
+
+  public TokenBuckets(double perSecond, int burst) {
+    this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / perSecond);
+    this.burstNanos = intervalNanos * Math.max(1, burst);
+  }
+
+  public boolean tryTake(String key) {
+    var now = System.nanoTime();
+    while (true) {
+      var bucket = buckets.computeIfAbsent(key, k -> new AtomicLong(now));
+      long full;
+      while ((full = bucket.get()) != DEAD) {
+        var next = Math.max(full, now) + intervalNanos;
+        if (next - now > burstNanos) {
+          rejected.increment();
+          return false;
+        }
+        if (bucket.compareAndSet(full, next)) return true;
+      }
+      // swept between lookup and take; the key gets a fresh bucket
+    }
+  }
+
+  // Drops buckets that are full again. The bucket is marked dead before it leaves the map so a
+  // concurrent take retries on a new one instead of charging an orphan.
+  public int sweep() {
+    var now = System.nanoTime();
+    int n = 0;
+    for (var e : buckets.entrySet()) {
+      var bucket = e.getValue();
+      var full = bucket.get();
+      if (full != DEAD && full - now <= 0 && bucket.compareAndSet(full, DEAD)) {
+        buckets.remove(e.getKey(), bucket);
+        n++;
+      }
+    }
+    return n;
+  }
+
+  public int size() { return buckets.size(); }
+  public long rejected() { return rejected.sum(); }
+}
@@ -0,0 +1,65 @@
+package ink.bluballz.chat.auth.server;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+// Verified access tokens by SHA-256 digest, each kept until its exp; expired ones are evicted first.
+public class TokenCache {
+  private record Entry(JwtUtil.AccessClaims claims, long expiresAtMillis) {}
+
+  private final ConcurrentHashMap<String, Entry> map = new ConcurrentHashMap<>();
+  private final int maxEntries;
+  private final AtomicBoolean shrinking = new AtomicBoolean();
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+  private final LongAdder expirations = new LongAdder();
+
+  public record Stats(long size, long hits, long misses, long evictions, long expirations) {}
+
+  public TokenCache(int maxEntries) { this.maxEntries = maxEntries; }
+
+  public JwtUtil.AccessClaims get(String digest) {
+    var e = map.get(digest);
+    if (e == null) {
+      misses.increment();
+      return null;
+    }
+    if (e.expiresAtMillis() <= System.currentTimeMillis()) {
+      if (map.remove(digest, e)) expirations.increment();
+      misses.increment();
+      return null;
+    }
+    hits.increment();
+    return e.claims();
+  }
+
+  public void put(String digest, JwtUtil.AccessClaims claims) {
+    if (maxEntries <= 0) return;
+    map.put(digest, new Entry(claims, claims.expiresAt() * 1000));
+    if (map.size() > maxEntries && shrinking.compareAndSet(false, true)) {
+      try { shrink(); } finally { shrinking.set(false); }
+    }
+  }
+
+  private void shrink() {
+    var now = System.currentTimeMillis();
+    var target = maxEntries - Math.max(1, maxEntries / 10);
+    for (var it = map.values().iterator(); it.hasNext(); ) {
+      if (it.next().expiresAtMillis() <= now) {
+        it.remove();
+        expirations.increment();
+      }
+    }
+    for (var it = map.keySet().iterator(); map.size() > target && it.hasNext(); ) {
+      it.next();
+      it.remove();
+      evictions.increment();
+    }
+  }
+
+  public Stats stats() {
+    return new Stats(map.size(), hits.sum(), misses.sum(), evictions.sum(), expirations.sum());
+  }
+}
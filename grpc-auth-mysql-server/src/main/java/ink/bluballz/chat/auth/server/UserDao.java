@@ -1,68 +1,422 @@
 package ink.bluballz.chat.auth.server;
 
+import javax.sql.DataSource;
 import java.sql.*;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+// MySQL UserStore. With a replica, user lookups go there unless the row may be missing or stale on it.
+public class UserDao implements UserStore {
+  private static final int ER_DUP_ENTRY = 1062;
+  private static final int SWEEP_AT = 65_536;
+  // ids per IN (...) list, well under max_allowed_packet and the prepared-statement placeholder limit
+  private static final int IN_CHUNK = 500;
+
+  private interface Lookup<T> { T run(DataSource ds) throws SQLException; }
 
-public class UserDao {
   private final Db db;
-  public record User(long id, String email, String displayName, String passwordHash, String refreshHash, Instant refreshExpires) {}
-  public UserDao(Db db) { this.db = db; }
+  private final long lagNanos;
+  // userId -> nanoTime of the last write on its behalf
+  private final ConcurrentHashMap<Long, Long> recentWrites = new ConcurrentHashMap<>();
+  private final LongAdder replicaReads = new LongAdder();
+  private final LongAdder primaryReads = new LongAdder();
+  private final LongAdder replicaErrors = new LongAdder();
+
+  public record ReadStats(long replica, long primary, long replicaErrors) {}
+
+  public UserDao(Db db) { this(db, 0); }
+
+  public UserDao(Db db, long maxLagMillis) {
+    this.db = db;
+    this.lagNanos = TimeUnit.MILLISECONDS.toNanos(maxLagMillis);
+  }
+
+  private <T> T read(Lookup<T> lookup, ToLongFunction<T> owner) throws SQLException {
+    var replica = db.replica();
+    if (replica == null) return lookup.run(db.ds());
+    T found;
+    try {
+      found = lookup.run(replica);
+    } catch (SQLException e) {
+      replicaErrors.increment();
+      return lookup.run(db.ds());
+    }
+    if (found != null && !wroteRecently(owner.applyAsLong(found))) {
+      replicaReads.increment();
+      return found;
+    }
+    primaryReads.increment();
+    return lookup.run(db.ds());
+  }
+
+  private boolean wroteRecently(long userId) {
+    var at = recentWrites.get(userId);
+    if (at == null) return false;
+    if (System.nanoTime() - at < lagNanos) return true;
+    recentWrites.remove(userId, at);
+    return false;
+  }
+
+  private void wrote(long userId) {
+    if (db.replica() == null) return;
+    var now = System.nanoTime();
+    recentWrites.put(userId, now);
+    if (recentWrites.size() > SWEEP_AT) recentWrites.values().removeIf(at -> now - at >= lagNanos);
+  }
 
+  public ReadStats readStats() { return new ReadStats(replicaReads.sum(), primaryReads.sum(), replicaErrors.sum()); }
+
+  @Override
   public boolean existsByEmail(String email) throws Exception {
-    try (var c = db.ds().getConnection(); var ps = c.prepareStatement("SELECT 1 FROM users WHERE email=?")) {
-      ps.setString(1, email);
-      try (var rs = ps.executeQuery()) { return rs.next(); }
+    return read(ds -> {
+      try (var c = ds.getConnection(); var ps = c.prepareStatement("SELECT id FROM users WHERE email=?")) {
+        ps.setString(1, email);
+        try (var rs = ps.executeQuery()) { return rs.next() ? rs.getLong(1) : null; }
+      }
+    }, Long::longValue) != null;
+  }
+
+  // One transaction on one connection. A taken email is reported by the unique key on users.email
+  // rather than a separate existence check.
+  @Override
+  public Session insertUser(String email, String display, String pwdHash, String refreshHash, Instant refreshExpires) throws Exception {
+    try (var c = db.ds().getConnection()) {
+      c.setAutoCommit(false);
+      try (var user = c.prepareStatement("INSERT INTO users(email,display_name,password_hash) VALUES (?,?,?)", Statement.RETURN_GENERATED_KEYS);
+           var session = c.prepareStatement("INSERT INTO sessions(user_id,refresh_hash,expires_at) VALUES (?,?,?)", Statement.RETURN_GENERATED_KEYS)) {
+        user.setString(1, email);
+        user.setString(2, display);
+        user.setString(3, pwdHash);
+        try {
+          user.executeUpdate();
+        } catch (SQLIntegrityConstraintViolationException e) {
+          if (e.getErrorCode() == ER_DUP_ENTRY) throw new DuplicateEmailException(email);
+          throw e;
+        }
+        long userId;
+        try (var rs = user.getGeneratedKeys()) { rs.next(); userId = rs.getLong(1); }
+        session.setLong(1, userId);
+        session.setString(2, refreshHash);
+        session.setTimestamp(3, Timestamp.from(refreshExpires));
+        session.executeUpdate();
+        long sessionId;
+        try (var rs = session.getGeneratedKeys()) { rs.next(); sessionId = rs.getLong(1); }
+        c.commit();
+        wrote(userId);
+        return new Session(sessionId, new User(userId, email, display, pwdHash), refreshExpires);
+      } catch (Exception e) {
+        c.rollback();
+        throw e;
+      }
     }
   }
 
-  public long insertUser(String email, String display, String pwdHash) throws Exception {
-    try (var c = db.ds().getConnection();
-         var ps = c.prepareStatement("INSERT INTO users(email,display_name,password_hash) VALUES (?,?,?)", Statement.RETURN_GENERATED_KEYS)) {
-      ps.setString(1, email);
-      ps.setString(2, display);
-      ps.setString(3, pwdHash);
-      ps.executeUpdate();
-      try (var rs = ps.getGeneratedKeys()) { rs.next(); return rs.getLong(1); }
+  // One transaction per batch: emails already taken are looked up first, the rest go in as a single
+  // multi-row INSERT, and their ids are read back by email. If a concurrent Register wins an email
+  // in between, the batch is rolled back and retried row by row on the same connection.
+  @Override
+  public long[] importUsers(List<NewUser> users) throws Exception {
+    var ids = new long[users.size()];
+    try (var c = db.ds().getConnection()) {
+      c.setAutoCommit(false);
+      if (!insertNew(c, users, ids)) {
+        for (int i = 0; i < ids.length; i++) {
+          var one = new long[1];
+          if (insertNew(c, List.of(users.get(i)), one)) ids[i] = one[0];
+        }
+      }
     }
+    for (var id : ids) if (id != 0) wrote(id);
+    return ids;
   }
 
+  // Commits the users not yet taken and fills in their ids; false (rolled back) if one was taken meanwhile.
+  private static boolean insertNew(Connection c, List<NewUser> users, long[] ids) throws SQLException {
+    try {
+      var taken = idsByEmail(c, users.stream().map(NewUser::email).toList());
+      var fresh = new ArrayList<NewUser>();
+      var seen = new HashSet<String>();
+      for (var u : users) {
+        if (!taken.containsKey(u.email()) && seen.add(u.email())) fresh.add(u);
+      }
+      if (!fresh.isEmpty()) {
+        var sql = "INSERT INTO users(email,display_name,password_hash) VALUES " + "(?,?,?),".repeat(fresh.size() - 1) + "(?,?,?)";
+        try (var ps = c.prepareStatement(sql)) {
+          int p = 1;
+          for (var u : fresh) {
+            ps.setString(p++, u.email());
+            ps.setString(p++, u.displayName());
+            ps.setString(p++, u.passwordHash());
+          }
+          ps.executeUpdate();
+        }
+        var created = idsByEmail(c, fresh.stream().map(NewUser::email).toList());
+        for (int i = 0; i < ids.length; i++) {
+          var u = users.get(i);
+          // the first entry of an email owns the row; later duplicates in the list stay 0
+          if (!taken.containsKey(u.email()) && seen.remove(u.email())) ids[i] = created.getOrDefault(u.email(), 0L);
+        }
+      }
+      c.commit();
+      return true;
+    } catch (SQLIntegrityConstraintViolationException e) {
+      c.rollback();
+      Arrays.fill(ids, 0);
+      if (e.getErrorCode() != ER_DUP_ENTRY) throw e;
+      return false;
+    } catch (Exception e) {
+      c.rollback();
+      throw e;
+    }
+  }
+
+  private static Map<String, Long> idsByEmail(Connection c, List<String> emails) throws SQLException {
+    var out = new HashMap<String, Long>();
+    var sql = "SELECT id,email FROM users WHERE email IN (" + "?,".repeat(emails.size() - 1) + "?)";
+    try (var ps = c.prepareStatement(sql)) {
+      for (int i = 0; i < emails.size(); i++) ps.setString(i + 1, emails.get(i));
+      try (var rs = ps.executeQuery()) {
+        while (rs.next()) out.put(rs.getString(2).toLowerCase(), rs.getLong(1));
+      }
+    }
+    return out;
+  }
+
+  @Override
+  public User findById(long id) throws Exception {
+    return read(ds -> {
+      try (var c = ds.getConnection(); var ps = c.prepareStatement("SELECT id,email,display_name,password_hash FROM users WHERE id=?")) {
+        ps.setLong(1, id);
+        try (var rs = ps.executeQuery()) {
+          if (!rs.next()) return null;
+          return map(rs);
+        }
+      }
+    }, User::id);
+  }
+
+  @Override
   public User findByEmail(String email) throws Exception {
-    try (var c = db.ds().getConnection(); var ps = c.prepareStatement("SELECT id,email,display_name,password_hash,refresh_hash,refresh_expires FROM users WHERE email=?")) {
-      ps.setString(1, email);
+    return read(ds -> {
+      try (var c = ds.getConnection(); var ps = c.prepareStatement("SELECT id,email,display_name,password_hash FROM users WHERE email=?")) {
+        ps.setString(1, email);
+        try (var rs = ps.executeQuery()) {
+          if (!rs.next()) return null;
+          return map(rs);
+        }
+      }
+    }, User::id);
+  }
+
+  // Same routing as the single-row lookups, per id: whatever the replica lacks or holds for a recent
+  // writer is fetched again from the primary in one more query.
+  @Override
+  public List<User> findByIds(Collection<Long> ids) throws Exception {
+    if (ids.isEmpty()) return List.of();
+    var replica = db.replica();
+    if (replica == null) return selectByIds(db.ds(), ids);
+    var out = new ArrayList<User>(ids.size());
+    var retry = new HashSet<Long>(ids);
+    try {
+      for (var user : selectByIds(replica, ids)) {
+        if (wroteRecently(user.id())) continue;
+        out.add(user);
+        retry.remove(user.id());
+      }
+      replicaReads.add(out.size());
+    } catch (SQLException e) {
+      replicaErrors.increment();
+    }
+    if (!retry.isEmpty()) {
+      primaryReads.add(retry.size());
+      out.addAll(selectByIds(db.ds(), retry));
+    }
+    return out;
+  }
+
+  private static List<User> selectByIds(DataSource ds, Collection<Long> ids) throws SQLException {
+    var out = new ArrayList<User>(ids.size());
+    var all = List.copyOf(ids);
+    try (var c = ds.getConnection()) {
+      for (int from = 0; from < all.size(); from += IN_CHUNK) {
+        var chunk = all.subList(from, Math.min(all.size(), from + IN_CHUNK));
+        var sql = "SELECT id,email,display_name,password_hash FROM users WHERE id IN (" + "?,".repeat(chunk.size() - 1) + "?)";
+        try (var ps = c.prepareStatement(sql)) {
+          for (int i = 0; i < chunk.size(); i++) ps.setLong(i + 1, chunk.get(i));
+          try (var rs = ps.executeQuery()) {
+            while (rs.next()) out.add(map(rs));
+          }
+        }
+      }
+    }
+    return out;
+  }
+
+  // Bulk scans read from the replica when there is one; callers tolerate its lag.
+  @Override
+  public List<User> listUsers(long afterId, int limit) throws Exception {
+    var ds = db.replica() != null ? db.replica() : db.ds();
+    try (var c = ds.getConnection(); var ps = c.prepareStatement(
+        "SELECT id,email,display_name,password_hash FROM users WHERE id>? ORDER BY id LIMIT ?")) {
+      ps.setLong(1, afterId);
+      ps.setInt(2, limit);
       try (var rs = ps.executeQuery()) {
-        if (!rs.next()) return null;
-        return map(rs);
+        var out = new ArrayList<User>();
+        while (rs.next()) out.add(map(rs));
+        return out;
       }
     }
   }
 
-  public User findByRefresh(String refreshHash) throws Exception {
-    try (var c = db.ds().getConnection(); var ps = c.prepareStatement("SELECT id,email,display_name,password_hash,refresh_hash,refresh_expires FROM users WHERE refresh_hash=?")) {
+  @Override
+  public boolean updatePasswordHash(long id, String expected, String newHash) throws Exception {
+    try (var c = db.ds().getConnection(); var ps = c.prepareStatement("UPDATE users SET password_hash=? WHERE id=? AND password_hash=?")) {
+      ps.setString(1, newHash);
+      ps.setLong(2, id);
+      ps.setString(3, expected);
+      var updated = ps.executeUpdate() == 1;
+      wrote(id);
+      return updated;
+    }
+  }
+
+  // Always on the primary: a lagging replica may still hold a rotated-away or deleted refresh hash.
+  @Override
+  public Session findSessionByRefresh(String refreshHash) throws Exception {
+    try (var c = db.ds().getConnection(); var ps = c.prepareStatement(
+        "SELECT s.id AS session_id, s.expires_at, u.id, u.email, u.display_name, u.password_hash " +
+        "FROM sessions s JOIN users u ON u.id = s.user_id WHERE s.refresh_hash=?")) {
       ps.setString(1, refreshHash);
       try (var rs = ps.executeQuery()) {
         if (!rs.next()) return null;
-        return map(rs);
+        return new Session(rs.getLong("session_id"), map(rs), rs.getTimestamp("expires_at").toInstant());
       }
     }
   }
 
-  public void updateRefresh(long userId, String refreshHash, Instant expires) throws Exception {
-    try (var c = db.ds().getConnection(); var ps = c.prepareStatement("UPDATE users SET refresh_hash=?, refresh_expires=? WHERE id=?")) {
-      ps.setString(1, refreshHash);
-      ps.setTimestamp(2, Timestamp.from(expires));
-      ps.setLong(3, userId);
+  // Applies a group of session inserts/rotations in one transaction using JDBC batches. Generated ids
+  // of a batched insert come back in batch order.
+  @Override
+  public long[] writeSessions(List<SessionWrite> writes) throws Exception {
+    var ids = new long[writes.size()];
+    try (var c = db.ds().getConnection()) {
+      c.setAutoCommit(false);
+      try (var ins = c.prepareStatement("INSERT INTO sessions(user_id,refresh_hash,expires_at) VALUES (?,?,?)", Statement.RETURN_GENERATED_KEYS);
+           var upd = c.prepareStatement("UPDATE sessions SET refresh_hash=?, expires_at=? WHERE id=? AND refresh_hash=?")) {
+        boolean anyIns = false, anyUpd = false;
+        for (var w : writes) {
+          if (w.isInsert()) {
+            ins.setLong(1, w.userId());
+            ins.setString(2, w.refreshHash());
+            ins.setTimestamp(3, Timestamp.from(w.expires()));
+            ins.addBatch();
+            anyIns = true;
+          } else {
+            upd.setString(1, w.refreshHash());
+            upd.setTimestamp(2, Timestamp.from(w.expires()));
+            upd.setLong(3, w.sessionId());
+            upd.setString(4, w.previousHash());
+            upd.addBatch();
+            anyUpd = true;
+          }
+        }
+        if (anyIns) {
+          ins.executeBatch();
+          try (var rs = ins.getGeneratedKeys()) {
+            for (int i = 0; i < ids.length; i++) {
+              if (writes.get(i).isInsert() && rs.next()) ids[i] = rs.getLong(1);
+            }
+          }
+        }
+        if (anyUpd) {
+          var counts = upd.executeBatch();
+          for (int i = 0, u = 0; i < ids.length; i++) {
+            if (!writes.get(i).isInsert()) ids[i] = counts[u++] == 0 ? 0 : writes.get(i).sessionId();
+          }
+        }
+        c.commit();
+        for (var w : writes) wrote(w.userId());
+        return ids;
+      } catch (Exception e) {
+        c.rollback();
+        throw e;
+      }
+    }
+  }
+
+  @Override
+  public boolean deleteSession(long sessionId, long userId) throws Exception {
+    try (var c = db.ds().getConnection(); var ps = c.prepareStatement("DELETE FROM sessions WHERE id=? AND user_id=?")) {
+      ps.setLong(1, sessionId);
+      ps.setLong(2, userId);
+      var deleted = ps.executeUpdate() == 1;
+      wrote(userId);
+      return deleted;
+    }
+  }
+
+  @Override
+  public int purgeExpiredSessions(int limit) throws Exception {
+    try (var c = db.ds().getConnection(); var ps = c.prepareStatement("DELETE FROM sessions WHERE expires_at < ? LIMIT ?")) {
+      ps.setTimestamp(1, Timestamp.from(Instant.now()));
+      ps.setInt(2, limit);
+      return ps.executeUpdate();
+    }
+  }
+
+  @Override
+  public void saveRevocation(String jti, long sessionId, long expiresAt) throws Exception {
+    try (var c = db.ds().getConnection(); var ps = c.prepareStatement("INSERT INTO revocations(jti,session_id,expires_at) VALUES (?,?,?)")) {
+      ps.setString(1, jti);
+      if (sessionId == 0) ps.setNull(2, Types.BIGINT);
+      else ps.setLong(2, sessionId);
+      ps.setTimestamp(3, Timestamp.from(Instant.ofEpochSecond(expiresAt)));
       ps.executeUpdate();
     }
   }
 
-  private static User map(ResultSet rs) throws Exception {
-    var exp = rs.getTimestamp("refresh_expires");
+  // On the primary: a revocation read late from a replica would let a signed-out token through for longer.
+  @Override
+  public List<Revocation> listRevocations(long afterId, int limit) throws Exception {
+    try (var c = db.ds().getConnection(); var ps = c.prepareStatement(
+        "SELECT id,jti,session_id,expires_at FROM revocations WHERE id > ? AND expires_at > ? ORDER BY id LIMIT ?")) {
+      ps.setLong(1, afterId);
+      ps.setTimestamp(2, Timestamp.from(Instant.now()));
+      ps.setInt(3, limit);
+      var out = new ArrayList<Revocation>();
+      try (var rs = ps.executeQuery()) {
+        while (rs.next()) {
+          out.add(new Revocation(rs.getLong(1), rs.getString(2), rs.getLong(3), rs.getTimestamp(4).toInstant().getEpochSecond()));
+        }
+      }
+      return out;
+    }
+  }
+
+  @Override
+  public int purgeExpiredRevocations(int limit) throws Exception {
+    try (var c = db.ds().getConnection(); var ps = c.prepareStatement("DELETE FROM revocations WHERE expires_at < ? LIMIT ?")) {
+      ps.setTimestamp(1, Timestamp.from(Instant.now()));
+      ps.setInt(2, limit);
+      return ps.executeUpdate();
+    }
+  }
+
+  private static User map(ResultSet rs) throws SQLException {
     return new User(
         rs.getLong("id"),
         rs.getString("email"),
         rs.getString("display_name"),
-        rs.getString("password_hash"),
-        rs.getString("refresh_hash"),
-        exp == null ? null : exp.toInstant());
+        rs.getString("password_hash"));
   }
 }
\ No newline at end of file
@@ -0,0 +1,127 @@
+package ink.bluballz.chat.auth.server;
+
+import ink.bluballz.chat.auth.v1.UserEvent;
+import ink.bluballz.chat.auth.v1.UserSummary;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+
+import java.security.SecureRandom;
+import java.util.HexFormat;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// User change events for WatchUsers, kept in a ring of the last `capacity` and sent from one feed thread.
+public class UserFeed implements AutoCloseable {
+  private final String epoch;
+  private final int mask;
+  private final AtomicReferenceArray<UserEvent> ring;
+  private volatile long head;
+  private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+  private final LongAdder resyncs = new LongAdder();
+  private final ExecutorService sender = Executors.newSingleThreadExecutor(r -> {
+    var t = new Thread(r, "user-feed");
+    t.setDaemon(true);
+    return t;
+  });
+
+  public record Stats(long head, int watchers, long resyncs) {}
+
+  public UserFeed(int capacity) {
+    var size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+    this.mask = size - 1;
+    this.ring = new AtomicReferenceArray<>(size);
+    var id = new byte[8];
+    new SecureRandom().nextBytes(id);
+    this.epoch = HexFormat.of().formatHex(id);
+  }
+
+  public void registered(UserStore.User user) { publish(UserEvent.Type.REGISTERED, user); }
+
+  public void profileUpdated(UserStore.User user) { publish(UserEvent.Type.PROFILE_UPDATED, user); }
+
+  private synchronized void publish(UserEvent.Type type, UserStore.User user) {
+    var seq = head + 1;
+    ring.set((int) (seq & mask), UserEvent.newBuilder()
+        .setEpoch(epoch).setSeq(seq).setType(type).setAtMillis(System.currentTimeMillis())
+        .setUser(UserSummary.newBuilder().setUserId(Long.toString(user.id())).setEmail(user.email()).setDisplayName(user.displayName()))
+        .build());
+    head = seq;
+    for (var s : subscriptions) s.wake();
+  }
+
+  public void subscribe(String fromEpoch, long afterSeq, StreamObserver<UserEvent> resp) {
+    var s = new Subscription((ServerCallStreamObserver<UserEvent>) resp);
+    s.resp.setOnCancelHandler(() -> {
+      s.cancelled = true;
+      subscriptions.remove(s);
+    });
+    s.resp.setOnReadyHandler(s::wake);
+    synchronized (this) {
+      // the oldest event still in the ring is head - mask
+      if (epoch.equals(fromEpoch) && afterSeq <= head && afterSeq >= head - mask - 1) s.next = afterSeq + 1;
+      else s.resync = true;
+      subscriptions.add(s);
+    }
+    s.wake();
+  }
+
+  private final class Subscription {
+    final ServerCallStreamObserver<UserEvent> resp;
+    final AtomicBoolean scheduled = new AtomicBoolean();
+    volatile boolean cancelled;
+    long next;
+    boolean resync;
+
+    Subscription(ServerCallStreamObserver<UserEvent> resp) { this.resp = resp; }
+
+    // At most one drain is queued per watcher however many events arrive meanwhile.
+    void wake() {
+      if (scheduled.compareAndSet(false, true)) sender.execute(this::drain);
+    }
+
+    // Runs on the feed thread only.
+    void drain() {
+      scheduled.set(false);
+      while (!cancelled && resp.isReady()) {
+        if (resync) {
+          var at = head;
+          resp.onNext(UserEvent.newBuilder().setEpoch(epoch).setSeq(at).setType(UserEvent.Type.RESYNC)
+              .setAtMillis(System.currentTimeMillis()).build());
+          resyncs.increment();
+          next = at + 1;
+          resync = false;
+          continue;
+        }
+        if (next > head) return;
+        var e = ring.get((int) (next & mask));
+        // overwritten by a later lap: this watcher is more than a ring behind
+        if (e == null || e.getSeq() != next) {
+          resync = true;
+          continue;
+        }
+        resp.onNext(e);
+        next++;
+      }
+    }
+  }
+
+  public Stats stats() { return new Stats(head, subscriptions.size(), resyncs.sum()); }
+
+  // Ends every watch cleanly so watchers reconnect elsewhere; they resume with a RESYNC.
+  @Override
+  public void close() throws InterruptedException {
+    sender.execute(() -> {
+      for (var s : subscriptions) {
+        if (!s.cancelled) s.resp.onCompleted();
+      }
+    });
+    sender.shutdown();
+    sender.awaitTermination(1, TimeUnit.SECONDS);
+  }
+}
@@ -0,0 +1,277 @@
+package ink.bluballz.chat.auth.server;
+
+import ink.bluballz.chat.auth.v1.ImportUser;
+import ink.bluballz.chat.auth.v1.ImportUserResult;
+import ink.bluballz.chat.auth.v1.ImportUsersRequest;
+import ink.bluballz.chat.auth.v1.ImportUsersResponse;
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// ImportUsers: records are hashed on the bcrypt pool, written in batches and answered in chunks as they finish.
+public class UserImporter implements AutoCloseable {
+  static final int MAX_USERS_PER_MESSAGE = 1000;
+  static final int BATCH = 500;
+  static final int MAX_PENDING = 8 * BATCH;
+  static final int RESULTS_PER_RESPONSE = 500;
+  private static final int MAX_EMAIL = 255;
+  private static final int MAX_DISPLAY_NAME = 100;
+
+  private final UserStore users;
+  private final HashEngine hasher;
+  private final UserSearchIndex search;
+  private final byte[] token;
+  private final int cost;
+  private final LongAdder imported = new LongAdder();
+  private final LongAdder alreadyExists = new LongAdder();
+  private final LongAdder invalid = new LongAdder();
+  private final LongAdder failed = new LongAdder();
+  private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+    var t = new Thread(r, "import-writer");
+    t.setDaemon(true);
+    return t;
+  });
+
+  public record Stats(long imported, long alreadyExists, long invalid, long failed) {}
+
+  // A blank token disables ImportUsers. Plaintext passwords are hashed at `cost`; users whose hash
+  // is below the server's cost get it upgraded on their first login.
+  public UserImporter(UserStore users, HashEngine hasher, UserSearchIndex search, String token, int cost) {
+    this.users = users;
+    this.hasher = hasher;
+    this.search = search;
+    this.token = token == null || token.isBlank() ? null : token.getBytes(StandardCharsets.UTF_8);
+    this.cost = cost;
+  }
+
+  public StreamObserver<ImportUsersRequest> open(StreamObserver<ImportUsersResponse> resp) {
+    return new Call((ServerCallStreamObserver<ImportUsersResponse>) resp);
+  }
+
+  private static final class Pending {
+    final int index;
+    final String email;
+    final String displayName;
+    String password;
+    String hash;
+
+    Pending(int index, String email, String displayName) {
+      this.index = index;
+      this.email = email;
+      this.displayName = displayName;
+    }
+  }
+
+  private final class Call implements StreamObserver<ImportUsersRequest> {
+    private final ServerCallStreamObserver<ImportUsersResponse> resp;
+    private final ArrayDeque<Pending> toHash = new ArrayDeque<>();
+    private final ArrayList<Pending> ready = new ArrayList<>();
+    private final ArrayList<ImportUserResult> results = new ArrayList<>();
+    private final long[] counts = new long[4];
+    private int received;
+    private int unfinished;
+    private int hashing;
+    private boolean started;
+    private boolean errorsOnly;
+    private boolean halfClosed;
+    private boolean paused;
+    private boolean done;
+
+    Call(ServerCallStreamObserver<ImportUsersResponse> resp) {
+      this.resp = resp;
+      resp.disableAutoRequest();
+      resp.setOnCancelHandler(() -> { synchronized (this) { done = true; } });
+      resp.setOnReadyHandler(() -> { synchronized (this) { resumeOrComplete(); } });
+      resp.request(1);
+    }
+
+    @Override
+    public synchronized void onNext(ImportUsersRequest req) {
+      if (done) return;
+      if (!started) {
+        started = true;
+        if (token == null || !MessageDigest.isEqual(token, req.getImportToken().getBytes(StandardCharsets.UTF_8))) {
+          abort(Status.PERMISSION_DENIED.withDescription(token == null ? "Import disabled" : "Bad import token"));
+          return;
+        }
+        errorsOnly = req.getErrorsOnly();
+      }
+      if (req.getUsersCount() > MAX_USERS_PER_MESSAGE) {
+        abort(Status.INVALID_ARGUMENT.withDescription("At most " + MAX_USERS_PER_MESSAGE + " users per message"));
+        return;
+      }
+      for (var u : req.getUsersList()) accept(u);
+      pump();
+      flush(false);
+      // results the client is not reading back up here, so stop reading records too
+      if (unfinished < MAX_PENDING && resp.isReady()) resp.request(1);
+      else paused = true;
+    }
+
+    private void accept(ImportUser u) {
+      var index = received++;
+      var email = u.getEmail().trim().toLowerCase();
+      var display = u.getDisplayName().isBlank() ? email : u.getDisplayName().trim();
+      String problem = null;
+      if (!AuthServiceImpl.EmailValidator.isValid(email) || email.length() > MAX_EMAIL) problem = "Invalid email";
+      else if (display.length() > MAX_DISPLAY_NAME) problem = "Display name too long";
+      else if (!u.getBcryptHash().isEmpty() && PasswordUtil.importable(u.getBcryptHash()) == null) problem = "Not a bcrypt hash";
+      else if (u.getBcryptHash().isEmpty() && u.getPassword().length() < 8) problem = "Password too short";
+      if (problem != null) {
+        finish(index, ImportUserResult.Code.INVALID, 0, problem);
+        return;
+      }
+      var p = new Pending(index, email, display);
+      unfinished++;
+      if (!u.getBcryptHash().isEmpty()) {
+        p.hash = PasswordUtil.importable(u.getBcryptHash());
+        ready.add(p);
+      } else {
+        p.password = u.getPassword();
+        toHash.add(p);
+      }
+    }
+
+    // Starts hashes up to the pool size and hands full batches (or, at the end, the rest) to the writer.
+    private void pump() {
+      while (!done && hashing < hasher.threads() && !toHash.isEmpty()) {
+        var p = toHash.poll();
+        hashing++;
+        hasher.importHash(p.password, cost).whenComplete((hash, t) -> hashed(p, hash, t));
+      }
+      var last = halfClosed && toHash.isEmpty() && hashing == 0;
+      while (!done && (ready.size() >= BATCH || last && !ready.isEmpty())) {
+        var n = Math.min(BATCH, ready.size());
+        var batch = new ArrayList<>(ready.subList(0, n));
+        ready.subList(0, n).clear();
+        writer.execute(() -> write(batch));
+      }
+    }
+
+    private synchronized void hashed(Pending p, String hash, Throwable t) {
+      hashing--;
+      if (t != null && Status.fromThrowable(t).getCode() == Status.Code.RESOURCE_EXHAUSTED) {
+        // the pool is busy with logins: try again shortly
+        toHash.addFirst(p);
+        CompletableFuture.delayedExecutor(100, TimeUnit.MILLISECONDS).execute(() -> { synchronized (this) { pump(); } });
+        return;
+      }
+      p.password = null;
+      if (t != null) {
+        finish(p.index, ImportUserResult.Code.FAILED, 0, t.getMessage());
+        unfinished--;
+      } else {
+        p.hash = hash;
+        ready.add(p);
+      }
+      pump();
+      resumeOrComplete();
+    }
+
+    private void write(List<Pending> batch) {
+      long[] created = null;
+      String error = null;
+      try {
+        if (!isDone()) created = users.importUsers(batch.stream().map(p -> new UserStore.NewUser(p.email, p.displayName, p.hash)).toList());
+      } catch (Exception e) {
+        error = e.getMessage();
+      }
+      synchronized (this) {
+        for (int i = 0; i < batch.size(); i++) {
+          var p = batch.get(i);
+          if (created == null) {
+            finish(p.index, ImportUserResult.Code.FAILED, 0, error == null ? "Import cancelled" : error);
+          } else if (created[i] == 0) {
+            finish(p.index, ImportUserResult.Code.ALREADY_EXISTS, 0, null);
+          } else {
+            finish(p.index, ImportUserResult.Code.IMPORTED, created[i], null);
+            search.add(new UserStore.User(created[i], p.email, p.displayName, p.hash));
+          }
+        }
+        unfinished -= batch.size();
+        resumeOrComplete();
+      }
+    }
+
+    private synchronized boolean isDone() { return done; }
+
+    private void finish(int index, ImportUserResult.Code code, long id, String error) {
+      counts[code.getNumber()]++;
+      switch (code) {
+        case IMPORTED -> imported.increment();
+        case ALREADY_EXISTS -> alreadyExists.increment();
+        case INVALID -> invalid.increment();
+        default -> failed.increment();
+      }
+      if (errorsOnly && code == ImportUserResult.Code.IMPORTED) return;
+      var r = ImportUserResult.newBuilder().setIndex(index).setCode(code);
+      if (id != 0) r.setUserId(Long.toString(id));
+      if (error != null) r.setError(error);
+      results.add(r.build());
+    }
+
+    // Sends finished results in chunks, each with the counts so far; `all` also sends a final short one.
+    private void flush(boolean all) {
+      while (!done && (results.size() >= RESULTS_PER_RESPONSE || all)) {
+        var n = Math.min(RESULTS_PER_RESPONSE, results.size());
+        var chunk = results.subList(0, n);
+        resp.onNext(ImportUsersResponse.newBuilder().addAllResults(chunk)
+            .setImported(counts[0]).setAlreadyExists(counts[1]).setInvalid(counts[2]).setFailed(counts[3]).build());
+        chunk.clear();
+        if (results.isEmpty()) all = false;
+      }
+    }
+
+    private void resumeOrComplete() {
+      if (done) return;
+      flush(false);
+      if (paused && unfinished < MAX_PENDING / 2 && resp.isReady()) {
+        paused = false;
+        resp.request(1);
+      }
+      if (halfClosed && unfinished == 0) complete();
+    }
+
+    private void complete() {
+      flush(true);
+      done = true;
+      resp.onCompleted();
+    }
+
+    private void abort(Status status) {
+      done = true;
+      resp.onError(status.asRuntimeException());
+    }
+
+    @Override
+    public synchronized void onError(Throwable t) { done = true; }
+
+    @Override
+    public synchronized void onCompleted() {
+      if (done) return;
+      if (!started) {
+        abort(Status.PERMISSION_DENIED.withDescription(token == null ? "Import disabled" : "Bad import token"));
+        return;
+      }
+      halfClosed = true;
+      pump();
+      if (unfinished == 0) complete();
+    }
+  }
+
+  public Stats stats() { return new Stats(imported.sum(), alreadyExists.sum(), invalid.sum(), failed.sum()); }
+
+  @Override
+  public void close() { writer.shutdown(); }
+}
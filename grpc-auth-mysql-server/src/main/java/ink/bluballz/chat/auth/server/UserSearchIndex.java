@@ -0,0 +1,201 @@
+package ink.bluballz.chat.auth.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+// In-memory prefix and trigram index over display names and emails for SearchUsers.
+public class UserSearchIndex implements AutoCloseable {
+  private static final int PAGE = 1000;
+  // ids below the scan cursor that are re-read each round, for inserts that committed out of id order
+  private static final long OVERLAP = 256;
+
+  public record Match(long userId, String email, String displayName) {}
+  private record Doc(Match user, String email, String name) {}
+
+  // Doc numbers in insertion order. Appended under the index lock; a reader takes size before docs,
+  // and a grown array is published before the size that needs it, so no lock is needed to read.
+  private static final class Postings {
+    volatile int[] docs = new int[2];
+    volatile int size;
+
+    void add(int doc) {
+      var a = docs;
+      var n = size;
+      if (n == a.length) docs = a = Arrays.copyOf(a, n * 2);
+      a[n] = doc;
+      size = n + 1;
+    }
+  }
+
+  private final UserStore users;
+  private volatile Consumer<UserStore.User> listener = u -> { };
+  private final ConcurrentHashMap<Long, Integer> byUserId = new ConcurrentHashMap<>();
+  private final ConcurrentSkipListMap<String, Postings> prefixes = new ConcurrentSkipListMap<>();
+  private final ConcurrentHashMap<Long, Postings> trigrams = new ConcurrentHashMap<>();
+  private volatile Doc[] docs = new Doc[1024];
+  private volatile int size;
+  private volatile long scannedTo;
+  private volatile boolean loaded;
+  // ConcurrentSkipListMap.size() walks the map
+  private volatile int prefixCount;
+  private final LongAdder searches = new LongAdder();
+  private final Histogram searchTime = new Histogram();
+  private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+    var t = new Thread(r, "user-index");
+    t.setDaemon(true);
+    return t;
+  });
+
+  public record Stats(long users, long prefixes, long trigrams, long searches) {}
+
+  public UserSearchIndex(UserStore users) { this.users = users; }
+
+  // Called with every user added from now on except by load(), under the index lock; WatchUsers
+  // publishes from here so users registered through other instances reach the feed too.
+  public void listen(Consumer<UserStore.User> listener) { this.listener = listener; }
+
+  public UserSearchIndex start(long catchUpSeconds) {
+    timer.scheduleWithFixedDelay(() -> {
+      try {
+        catchUp();
+      } catch (Exception e) {
+        System.err.println("User index catch-up failed: " + e.getMessage());
+      }
+    }, catchUpSeconds, catchUpSeconds, TimeUnit.SECONDS);
+    return this;
+  }
+
+  // The initial scan: users already in the store are not news, so the listener does not see them.
+  public int load() throws Exception {
+    var added = catchUp(false);
+    loaded = true;
+    return added;
+  }
+
+  public boolean loaded() { return loaded; }
+
+  // Reads users past the scan cursor from the store page by page; returns how many were new.
+  public int catchUp() throws Exception { return catchUp(true); }
+
+  private int catchUp(boolean notify) throws Exception {
+    var after = Math.max(0, scannedTo - OVERLAP);
+    int added = 0;
+    while (true) {
+      var page = users.listUsers(after, PAGE);
+      for (var u : page) if (add(u, notify)) added++;
+      if (page.isEmpty()) break;
+      after = page.get(page.size() - 1).id();
+      scannedTo = Math.max(scannedTo, after);
+      if (page.size() < PAGE) break;
+    }
+    return added;
+  }
+
+  public boolean add(UserStore.User u) { return add(u, true); }
+
+  private synchronized boolean add(UserStore.User u, boolean notify) {
+    if (byUserId.containsKey(u.id())) return false;
+    var doc = new Doc(new Match(u.id(), u.email(), u.displayName()),
+        u.email().toLowerCase(Locale.ROOT), u.displayName().toLowerCase(Locale.ROOT));
+    var a = docs;
+    var n = size;
+    if (n == a.length) docs = a = Arrays.copyOf(a, n * 2);
+    a[n] = doc;
+
+    var keys = new HashSet<String>();
+    keys.add(doc.email());
+    keys.add(doc.name());
+    for (var word : doc.name().split("\\s+")) if (!word.isEmpty()) keys.add(word);
+    for (var k : keys) {
+      var p = prefixes.get(k);
+      if (p == null) {
+        prefixes.put(k, p = new Postings());
+        prefixCount++;
+      }
+      p.add(n);
+    }
+
+    var grams = new HashSet<Long>();
+    trigramsOf(doc.email(), grams);
+    trigramsOf(doc.name(), grams);
+    for (var g : grams) trigrams.computeIfAbsent(g, x -> new Postings()).add(n);
+
+    size = n + 1;
+    byUserId.put(u.id(), n);
+    if (notify) listener.accept(u);
+    return true;
+  }
+
+  // Case-insensitive; excludeUserId (the caller) is left out of the results.
+  public List<Match> search(String query, int limit, long excludeUserId) {
+    var started = System.nanoTime();
+    var q = query.trim().toLowerCase(Locale.ROOT);
+    var out = new ArrayList<Match>(Math.min(limit, 64));
+    var seen = new HashSet<Integer>();
+    var all = docs;
+    try {
+      if (q.isEmpty() || limit <= 0) return out;
+      for (var e : prefixes.tailMap(q).entrySet()) {
+        if (!e.getKey().startsWith(q) || out.size() >= limit) break;
+        collect(e.getValue(), all, q, false, limit, excludeUserId, seen, out);
+      }
+      if (out.size() < limit && q.length() >= 3) {
+        var rarest = rarestTrigram(q);
+        if (rarest != null) collect(rarest, all, q, true, limit, excludeUserId, seen, out);
+      }
+      return out;
+    } finally {
+      searches.increment();
+      searchTime.observeNanos(System.nanoTime() - started);
+    }
+  }
+
+  private static void collect(Postings p, Doc[] all, String q, boolean check, int limit, long exclude,
+                              HashSet<Integer> seen, List<Match> out) {
+    var n = p.size;
+    var d = p.docs;
+    for (int i = 0; i < n && out.size() < limit; i++) {
+      // a doc appended after `all` was read is left for the next search
+      if (d[i] >= all.length || all[d[i]] == null) continue;
+      var doc = all[d[i]];
+      if (doc.user().userId() == exclude || !seen.add(d[i])) continue;
+      if (check && !doc.email().contains(q) && !doc.name().contains(q)) continue;
+      out.add(doc.user());
+    }
+  }
+
+  // The shortest posting list among the query's trigrams, or null if one of them occurs nowhere.
+  private Postings rarestTrigram(String q) {
+    Postings rarest = null;
+    for (int i = 0; i + 3 <= q.length(); i++) {
+      var p = trigrams.get(trigram(q, i));
+      if (p == null) return null;
+      if (rarest == null || p.size < rarest.size) rarest = p;
+    }
+    return rarest;
+  }
+
+  private static void trigramsOf(String s, HashSet<Long> into) {
+    for (int i = 0; i + 3 <= s.length(); i++) into.add(trigram(s, i));
+  }
+
+  private static long trigram(String s, int i) {
+    return ((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2);
+  }
+
+  public Stats stats() { return new Stats(size, prefixCount, trigrams.size(), searches.sum()); }
+  public Histogram searchTime() { return searchTime; }
+
+  @Override
+  public void close() { timer.shutdownNow(); }
+}
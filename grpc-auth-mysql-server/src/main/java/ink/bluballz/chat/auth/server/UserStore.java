@@ -0,0 +1,71 @@
+package ink.bluballz.chat.auth.server;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+
+// Users and their device sessions; UserDao is the MySQL implementation.
+public interface UserStore {
+  record User(long id, String email, String displayName, String passwordHash) {}
+  record Session(long id, User user, Instant expires) {}
+  record NewUser(String email, String displayName, String passwordHash) {}
+  record SessionWrite(long sessionId, long userId, String previousHash, String refreshHash, Instant expires) {
+    public static SessionWrite insert(long userId, String refreshHash, Instant expires) { return new SessionWrite(0, userId, null, refreshHash, expires); }
+    public static SessionWrite rotate(long sessionId, long userId, String previousHash, String refreshHash, Instant expires) {
+      return new SessionWrite(sessionId, userId, previousHash, refreshHash, expires);
+    }
+    public boolean isInsert() { return sessionId == 0; }
+  }
+  // A revoked access token (jti) or session (sessionId, jti null), kept until expiresAt (epoch seconds).
+  record Revocation(long id, String jti, long sessionId, long expiresAt) {}
+
+  class DuplicateEmailException extends Exception {
+    public DuplicateEmailException(String email) { super("Email in use: " + email); }
+  }
+
+  boolean existsByEmail(String email) throws Exception;
+
+  // Creates the user together with its first session and returns that session; throws
+  // DuplicateEmailException if the email is taken.
+  Session insertUser(String email, String display, String pwdHash, String refreshHash, Instant refreshExpires) throws Exception;
+
+  // Bulk insert without sessions, for ImportUsers. Returns each user's id in order, 0 where the email
+  // was already taken (including by an earlier entry of the same list).
+  long[] importUsers(List<NewUser> users) throws Exception;
+
+  User findById(long id) throws Exception;
+
+  User findByEmail(String email) throws Exception;
+
+  // The users among `ids` that exist, in no particular order.
+  List<User> findByIds(Collection<Long> ids) throws Exception;
+
+  // Up to `limit` users with an id above afterId, in id order: keyset paging over the whole table.
+  List<User> listUsers(long afterId, int limit) throws Exception;
+
+  // Replaces the password hash only if it is still `expected`, so a background rehash cannot undo a
+  // password change that raced it. Returns whether the row was updated.
+  boolean updatePasswordHash(long id, String expected, String newHash) throws Exception;
+
+  Session findSessionByRefresh(String refreshHash) throws Exception;
+
+  // Returns the session id of each write, in order: generated for inserts, unchanged for rotations. A
+  // rotation only applies while the session still holds previousHash; otherwise (deleted, or already
+  // rotated by a concurrent refresh) its id is 0.
+  long[] writeSessions(List<SessionWrite> writes) throws Exception;
+
+  // Deletes one session of the user; false if it was not there (or belongs to someone else).
+  boolean deleteSession(long sessionId, long userId) throws Exception;
+
+  // Deletes at most `limit` expired sessions and returns how many went.
+  int purgeExpiredSessions(int limit) throws Exception;
+
+  // Records a revocation so other instances pick it up.
+  void saveRevocation(String jti, long sessionId, long expiresAt) throws Exception;
+
+  // Up to `limit` unexpired revocations with an id above afterId, in id order.
+  List<Revocation> listRevocations(long afterId, int limit) throws Exception;
+
+  // Deletes at most `limit` expired revocations and returns how many went.
+  int purgeExpiredRevocations(int limit) throws Exception;
+}
@@ -0,0 +1,89 @@
+package ink.bluballz.chat.auth.server;
+
+import ink.bluballz.chat.auth.v1.ValidateTokensRequest;
+import ink.bluballz.chat.auth.v1.ValidateTokensResponse;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+
+import java.util.concurrent.Executor;
+
+// One pipelined ValidateTokens call, pulling at most WINDOW requests ahead of their answers.
+class ValidateTokensStream implements StreamObserver<ValidateTokensRequest> {
+  static final int WINDOW = 256;
+
+  private final JwtUtil jwt;
+  private final Executor executor;
+  private final ServerCallStreamObserver<ValidateTokensResponse> resp;
+  private int inFlight;
+  private int deferred;
+  private boolean halfClosed;
+  private boolean done;
+
+  ValidateTokensStream(JwtUtil jwt, Executor executor, StreamObserver<ValidateTokensResponse> resp) {
+    this.jwt = jwt;
+    this.executor = executor;
+    this.resp = (ServerCallStreamObserver<ValidateTokensResponse>) resp;
+    this.resp.disableAutoRequest();
+    this.resp.setOnReadyHandler(this::resume);
+    this.resp.request(WINDOW);
+  }
+
+  @Override
+  public void onNext(ValidateTokensRequest req) {
+    synchronized (this) { inFlight++; }
+    var id = req.getCorrelationId();
+    var token = req.getToken();
+    JwtUtil.AccessClaims cached;
+    try {
+      cached = jwt.cachedAccess(token);
+    } catch (Exception revoked) {
+      reply(id, null);
+      return;
+    }
+    if (cached != null) {
+      reply(id, cached);
+      return;
+    }
+    executor.execute(() -> {
+      JwtUtil.AccessClaims claims = null;
+      try { claims = jwt.verifyAccess(token); } catch (Exception ignored) { }
+      reply(id, claims);
+    });
+  }
+
+  private synchronized void reply(long id, JwtUtil.AccessClaims claims) {
+    inFlight--;
+    if (done || resp.isCancelled()) return;
+    var out = ValidateTokensResponse.newBuilder().setCorrelationId(id);
+    if (claims != null) {
+      out.setValid(true).setUserId(claims.userId()).setEmail(claims.email());
+    }
+    resp.onNext(out.build());
+    if (resp.isReady()) resp.request(1);
+    else deferred++;
+    maybeComplete();
+  }
+
+  // The answers written while the client was not reading were not replaced with new requests; pull them now.
+  private synchronized void resume() {
+    if (done || deferred == 0 || !resp.isReady()) return;
+    resp.request(deferred);
+    deferred = 0;
+  }
+
+  @Override
+  public synchronized void onError(Throwable t) { done = true; }
+
+  @Override
+  public synchronized void onCompleted() {
+    halfClosed = true;
+    maybeComplete();
+  }
+
+  private void maybeComplete() {
+    if (halfClosed && inFlight == 0 && !done) {
+      done = true;
+      resp.onCompleted();
+    }
+  }
+}
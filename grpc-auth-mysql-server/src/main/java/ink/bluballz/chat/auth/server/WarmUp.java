@@ -0,0 +1,82 @@
+package ink.bluballz.chat.auth.server;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.function.Supplier;
+
+// Brings a fresh instance to steady-state latency, within a time budget, before it reports SERVING.
+public class WarmUp {
+  private static final long BATCH_NANOS = 50_000_000;
+
+  private final Db db;
+  private final UserStore users;
+  private final JwtUtil jwt;
+  private final HashEngine hasher;
+  private final long budgetNanos;
+
+  public WarmUp(Db db, UserStore users, JwtUtil jwt, HashEngine hasher, long budgetMillis) {
+    this.db = db;
+    this.users = users;
+    this.jwt = jwt;
+    this.hasher = hasher;
+    this.budgetNanos = budgetMillis * 1_000_000;
+  }
+
+  public void run() throws Exception {
+    var started = System.nanoTime();
+    var deadline = started + budgetNanos;
+
+    if (db != null) {
+      primePool(db.ds(), db.maxConnections());
+      if (db.replica() != null) primePool(db.replica(), db.replicaMaxConnections());
+    }
+    users.findByEmail("warmup@invalid");
+    users.findSessionByRefresh(JwtUtil.sha256("warmup"));
+
+    var token = jwt.issueAccess("0", "warmup@invalid", "warmup", 0).token();
+    untilSteady("sign", deadline, () -> jwt.issueAccess("0", "warmup@invalid", "warmup", 0));
+    untilSteady("verify", deadline, () -> jwt.verifyAccess(token));
+    untilSteady("cached", deadline, () -> jwt.parseAccess(token));
+
+    hasher.hash("warmup-password").thenCompose(h -> hasher.verify("warmup-password", h)).join();
+    System.out.printf("Warm-up done in %d ms%n", (System.nanoTime() - started) / 1_000_000);
+  }
+
+  // Borrows every connection at once so the pool is full before traffic arrives.
+  private static void primePool(DataSource ds, int connections) throws Exception {
+    var held = new ArrayList<Connection>();
+    try {
+      for (int i = 0; i < connections; i++) {
+        var c = ds.getConnection();
+        held.add(c);
+        try (var st = c.createStatement()) { st.execute("SELECT 1"); }
+      }
+    } finally {
+      for (var c : held) c.close();
+    }
+  }
+
+  // Runs op in 50 ms batches until three batches in a row fail to beat the best one by 10%, or the
+  // deadline passes.
+  private void untilSteady(String name, long deadline, Supplier<?> op) {
+    double best = Double.MAX_VALUE;
+    double mean = 0;
+    long ops = 0;
+    int stale = 0;
+    while (System.nanoTime() < deadline && stale < 3) {
+      var t0 = System.nanoTime();
+      long n = 0;
+      long elapsed;
+      do {
+        op.get();
+        n++;
+      } while ((elapsed = System.nanoTime() - t0) < BATCH_NANOS);
+      mean = elapsed / 1e3 / n;
+      ops += n;
+      stale = mean < best * 0.9 ? 0 : stale + 1;
+      best = Math.min(best, mean);
+    }
+    System.out.printf("Warm-up %s: %d ops, %.1f us/op%n", name, ops, mean);
+  }
+}
@@ -0,0 +1,224 @@
+package ink.bluballz.chat.auth.server;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.security.Keys;
+import org.junit.Test;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Date;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+public class Hs256CodecTest {
+  private static final byte[] SECRET = "test_test_test_test_test_test_32+".getBytes(StandardCharsets.UTF_8);
+  private static final long NOW = 1_700_000_000L;
+
+  private final Hs256Codec codec = new Hs256Codec(SECRET);
+
+  @Test
+  public void codecTokensVerifyWithJjwt() {
+    // jjwt checks exp against the wall clock, so this token expires in the future
+    var now = System.currentTimeMillis() / 1000;
+    var token = codec.encode("42", "a@example.com", "Alice", now, now + 900, "jti-1", 7);
+    Claims c = Jwts.parserBuilder().setSigningKey(Keys.hmacShaKeyFor(SECRET)).build().parseClaimsJws(token).getBody();
+    assertEquals("42", c.getSubject());
+    assertEquals("a@example.com", c.get("email"));
+    assertEquals("Alice", c.get("name"));
+    assertEquals("jti-1", c.getId());
+    assertEquals(now + 900, c.getExpiration().getTime() / 1000);
+    assertEquals(now, c.getIssuedAt().getTime() / 1000);
+    assertEquals(7L, ((Number) c.get("sid")).longValue());
+  }
+
+  @Test
+  public void jjwtTokensDecode() {
+    var token = Jwts.builder()
+        .setSubject("42").claim("email", "a@example.com").claim("name", "Alice").setId("jti-1").claim("sid", 7)
+        .setIssuedAt(new Date(NOW * 1000)).setExpiration(new Date((NOW + 900) * 1000))
+        .signWith(Keys.hmacShaKeyFor(SECRET), SignatureAlgorithm.HS256).compact();
+    var c = codec.decode(token, NOW);
+    assertEquals(new JwtUtil.AccessClaims("42", "a@example.com", "Alice", NOW, NOW + 900, "jti-1", 7), c);
+  }
+
+  @Test
+  public void jjwtHeaderWithTypDecodes() {
+    var token = Jwts.builder().setHeaderParam("typ", "JWT").setSubject("42").setExpiration(new Date((NOW + 60) * 1000))
+        .signWith(Keys.hmacShaKeyFor(SECRET), SignatureAlgorithm.HS256).compact();
+    assertEquals("42", codec.decode(token, NOW).userId());
+  }
+
+  @Test
+  public void roundTripsWithoutSessionId() {
+    var c = codec.decode(codec.encode("1", "e@x.org", "E", NOW, NOW + 60, "j", 0), NOW);
+    assertEquals(0, c.sessionId());
+  }
+
+  @Test
+  public void tamperedSignatureIsRejected() {
+    var token = codec.encode("42", "a@example.com", "Alice", NOW, NOW + 900, "jti-1", 7);
+    var last = token.charAt(token.length() - 2);
+    assertInvalid(token.substring(0, token.length() - 2) + (last == 'A' ? 'B' : 'A') + token.charAt(token.length() - 1), "Bad signature");
+    assertInvalid(new Hs256Codec("other_other_other_other_other_32+".getBytes(StandardCharsets.UTF_8))
+        .encode("42", "a@example.com", "Alice", NOW, NOW + 900, "jti-1", 7), "Bad signature");
+  }
+
+  @Test
+  public void tamperedPayloadIsRejected() {
+    var token = codec.encode("42", "a@example.com", "Alice", NOW, NOW + 900, "jti-1", 7);
+    var parts = token.split("\\.");
+    var forged = b64("{\"sub\":\"1\",\"exp\":" + (NOW + 900) + "}");
+    assertInvalid(parts[0] + "." + forged + "." + parts[2], "Bad signature");
+  }
+
+  @Test
+  public void otherAlgorithmsAreRejected() {
+    var claims = "{\"sub\":\"42\",\"exp\":" + (NOW + 60) + "}";
+    assertInvalid(signed("{\"alg\":\"none\"}", claims), "Unsupported header");
+    assertInvalid(signed("{\"alg\":\"HS512\"}", claims), "Unsupported header");
+    assertInvalid(signed("{\"typ\":\"JWT\"}", claims), "Unsupported header");
+    assertInvalid(signed("{\"alg\":\"HS256\",\"crit\":[\"exp\"]}", claims), "Unsupported header");
+    // an unsigned token: header alg none and an empty signature
+    assertInvalid(b64("{\"alg\":\"none\"}") + "." + b64(claims) + ".", "Unsupported header");
+  }
+
+  @Test
+  public void malformedHeaderIsRejected() {
+    var claims = "{\"sub\":\"42\",\"exp\":" + (NOW + 60) + "}";
+    assertInvalid(signed("not json", claims), "Malformed claims");
+    assertInvalid(signed("{\"alg\":\"HS256\"", claims), "Malformed claims");
+    assertInvalid(signed("{\"alg\":\"HS256\"} trailing", claims), "Malformed claims");
+  }
+
+  @Test
+  public void expiryBoundary() {
+    var token = codec.encode("42", "a@example.com", "Alice", NOW, NOW + 60, "j", 0);
+    codec.decode(token, NOW + 59);
+    assertInvalid(token, NOW + 60, "Token expired");
+    assertInvalid(token, NOW + 61, "Token expired");
+    assertInvalid(signed("{\"alg\":\"HS256\"}", "{\"sub\":\"42\"}"), "Missing exp");
+  }
+
+  @Test
+  public void notBeforeBoundary() {
+    var token = signed("{\"alg\":\"HS256\"}", "{\"sub\":\"42\",\"nbf\":" + NOW + ",\"exp\":" + (NOW + 60) + "}");
+    assertInvalid(token, NOW - 1, "Token not yet valid");
+    codec.decode(token, NOW);
+    codec.decode(token, NOW + 1);
+  }
+
+  @Test
+  public void fractionalNumericDatesAreTruncated() {
+    var c = codec.decode(signed("{\"alg\":\"HS256\"}", "{\"sub\":\"42\",\"iat\":1.7e9,\"exp\":" + (NOW + 60) + ".9}"), NOW);
+    assertEquals(1_700_000_000L, c.issuedAt());
+    assertEquals(NOW + 60, c.expiresAt());
+  }
+
+  @Test
+  public void nonAsciiAndEscapedClaimsRoundTrip() {
+    var name = "Zo\u00eb \u540d\u524d \uD83D\uDE00 \"quoted\" back\\slash tab\t nl\n ctl\u0001 slash/";
+    var email = "\u00fc@ex\u00e4mple.org";
+    var now = System.currentTimeMillis() / 1000;
+    var token = codec.encode("42", email, name, now, now + 60, "j\"1", 0);
+    var c = codec.decode(token, now);
+    assertEquals(name, c.name());
+    assertEquals(email, c.email());
+    assertEquals("j\"1", c.jti());
+
+    Claims j = Jwts.parserBuilder().setSigningKey(Keys.hmacShaKeyFor(SECRET)).build().parseClaimsJws(token).getBody();
+    assertEquals(name, j.get("name"));
+    assertEquals(email, j.get("email"));
+
+    var fromJjwt = Jwts.builder().setSubject("42").claim("name", name).claim("email", email)
+        .setExpiration(new Date((NOW + 60) * 1000)).signWith(Keys.hmacShaKeyFor(SECRET), SignatureAlgorithm.HS256).compact();
+    assertEquals(name, codec.decode(fromJjwt, NOW).name());
+  }
+
+  @Test
+  public void unicodeEscapesDecode() {
+    var token = signed("{\"alg\":\"HS256\"}",
+        "{\"sub\":\"42\",\"name\":\"\\u00e9\\ud83d\\ude00\\/\\b\\f\\r\",\"exp\":" + (NOW + 60) + "}");
+    assertEquals("\u00e9\uD83D\uDE00/\b\f\r", codec.decode(token, NOW).name());
+    assertInvalid(signed("{\"alg\":\"HS256\"}", "{\"sub\":\"\\x\",\"exp\":" + (NOW + 60) + "}"), "Malformed claims");
+    assertInvalid(signed("{\"alg\":\"HS256\"}", "{\"sub\":\"\\u00\",\"exp\":" + (NOW + 60) + "}"), "Malformed claims");
+    assertInvalid(signed("{\"alg\":\"HS256\"}", "{\"sub\":\"\\u+0ff\",\"exp\":" + (NOW + 60) + "}"), "Malformed claims");
+  }
+
+  @Test
+  public void unknownClaimsAreSkipped() {
+    var token = signed("{\"alg\":\"HS256\"}",
+        "{\"aud\":[\"a\",\"b}\"],\"x\":{\"y\":[1,{\"z\":\"]\"}]},\"ok\":true,\"n\":null,\"sub\":\"42\",\"exp\":" + (NOW + 60) + "}");
+    assertEquals("42", codec.decode(token, NOW).userId());
+  }
+
+  @Test
+  public void truncatedAndPaddedSegmentsAreRejected() {
+    var token = codec.encode("42", "a@example.com", "Alice", NOW, NOW + 900, "jti-1", 7);
+    var parts = token.split("\\.");
+    assertInvalid(token.substring(0, token.length() - 1), "Bad signature");
+    assertInvalid(token + "A", "Bad signature");
+    assertInvalid(token + "=", "Bad signature");
+    assertInvalid(parts[0] + "." + parts[1] + "." + parts[2].substring(0, 42) + "=", "Bad signature");
+    // the signature covers the segments as sent, so padding is caught before the claims are read
+    assertInvalid(parts[0] + "." + parts[1] + "=." + parts[2], "Bad signature");
+    assertInvalid(parts[0] + "." + parts[1], "Malformed token");
+    assertInvalid(parts[0] + "." + parts[1] + "." + parts[2] + ".", "Malformed token");
+    assertInvalid("." + parts[1] + "." + parts[2], "Malformed token");
+    assertInvalid("", "Malformed token");
+    assertInvalid(parts[0] + "." + parts[1] + "\u00e9." + parts[2], "Malformed token");
+    // a validly signed but cut-off claims object
+    assertInvalid(signed("{\"alg\":\"HS256\"}", "{\"sub\":\"42\",\"exp\":"), "Malformed claims");
+    assertInvalid(signed("{\"alg\":\"HS256\"}", "{\"sub\":\"42"), "Malformed claims");
+    assertInvalid(signed("{\"alg\":\"HS256\"}", ""), "Malformed claims");
+  }
+
+  @Test
+  public void concurrentUseFromManyThreads() throws Exception {
+    var pool = Executors.newVirtualThreadPerTaskExecutor();
+    try {
+      var tasks = new ArrayList<Callable<Boolean>>();
+      for (int i = 0; i < 2000; i++) {
+        var sub = Integer.toString(i);
+        tasks.add(() -> codec.decode(codec.encode(sub, "e@x.org", "N" + sub, NOW, NOW + 60, "j" + sub, 1), NOW).userId().equals(sub));
+      }
+      for (var f : pool.invokeAll(tasks)) assertTrue(f.get());
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  private void assertInvalid(String token, String message) { assertInvalid(token, NOW, message); }
+
+  private void assertInvalid(String token, long now, String message) {
+    try {
+      codec.decode(token, now);
+      fail("accepted " + token);
+    } catch (Hs256Codec.InvalidTokenException e) {
+      assertEquals(message, e.getMessage());
+    }
+  }
+
+  private static String b64(String json) {
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(json.getBytes(StandardCharsets.UTF_8));
+  }
+
+  // A token over arbitrary header and claims JSON, correctly signed with SECRET.
+  private static String signed(String header, String claims) {
+    try {
+      var input = b64(header) + "." + b64(claims);
+      var mac = Mac.getInstance("HmacSHA256");
+      mac.init(new SecretKeySpec(SECRET, "HmacSHA256"));
+      var sig = mac.doFinal(input.getBytes(StandardCharsets.US_ASCII));
+      return input + "." + Base64.getUrlEncoder().withoutPadding().encodeToString(sig);
+    } catch (Exception e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
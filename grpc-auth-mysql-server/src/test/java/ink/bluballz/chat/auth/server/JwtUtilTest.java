@@ -0,0 +1,41 @@
+package ink.bluballz.chat.auth.server;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+public class JwtUtilTest {
+  @Test
+  public void sha256MatchesMessageDigest() throws Exception {
+    // empty, shorter and longer than the 96-byte scratch buffer, and non-ASCII part way through
+    for (var s : new String[]{"", "abc", "x".repeat(95), "y".repeat(96), "z".repeat(300), "a".repeat(150) + "\u00e9\u540d\uD83D\uDE00"}) {
+      assertEquals(s, expected(s), JwtUtil.sha256(s));
+    }
+  }
+
+  @Test
+  public void sha256FromManyVirtualThreads() throws Exception {
+    var pool = Executors.newVirtualThreadPerTaskExecutor();
+    try {
+      var tasks = new ArrayList<Callable<Boolean>>();
+      for (int i = 0; i < 5000; i++) {
+        var s = "token-" + i + "-" + "p".repeat(i % 200);
+        tasks.add(() -> JwtUtil.sha256(s).equals(expected(s)));
+      }
+      for (var f : pool.invokeAll(tasks)) assertTrue(f.get());
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  private static String expected(String s) throws Exception {
+    return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(s.getBytes(StandardCharsets.UTF_8)));
+  }
+}